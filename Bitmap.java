@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints in the style of Roaring bitmaps. Values are grouped by their high
+ *  16 bits into containers, kept sorted by key. A container holding at most ARRAY_MAX values stores them as a
+ *  sorted array of their low 16 bits; a fuller one switches to a plain bitmap of 2^16 bits. Sparse sets then
+ *  cost two bytes a value and dense ones one bit, and unions and intersections work a container at a time.
+ *
+ *  Stored form: container count, then for each container its key, its cardinality, and either that many
+ *  2-byte values or, above ARRAY_MAX, the 1024 words of its bitmap.
+ */
+class Bitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = (1 << 16) / 64;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+
+    void add(int value) {
+        char key = (char) (value >>> 16);
+        int i = Arrays.binarySearch(keys, key);
+        if(i < 0) {
+            i = -i - 1;
+            keys = insert(keys, i, key);
+            Container[] grown = new Container[containers.length + 1];
+            System.arraycopy(containers, 0, grown, 0, i);
+            System.arraycopy(containers, i, grown, i + 1, containers.length - i);
+            grown[i] = new Container();
+            containers = grown;
+        }
+        containers[i].add((char) value);
+    }
+
+    boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    int cardinality() {
+        int total = 0;
+        for(Container container : containers) {
+            total += container.cardinality;
+        }
+        return total;
+    }
+
+    //Adds every value of OTHER to this set
+    void or(Bitmap other) {
+        char[] mergedKeys = new char[keys.length + other.keys.length];
+        Container[] merged = new Container[mergedKeys.length];
+        int i = 0, j = 0, n = 0;
+        while(i < keys.length || j < other.keys.length) {
+            if(j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                mergedKeys[n] = keys[i];
+                merged[n++] = containers[i++];
+            } else if(i == keys.length || other.keys[j] < keys[i]) {
+                mergedKeys[n] = other.keys[j];
+                merged[n++] = other.containers[j++].copy();
+            } else {
+                mergedKeys[n] = keys[i];
+                merged[n++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        keys = Arrays.copyOf(mergedKeys, n);
+        containers = Arrays.copyOf(merged, n);
+    }
+
+    //Returns the values in both this set and OTHER
+    Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        char[] commonKeys = new char[Math.min(keys.length, other.keys.length)];
+        Container[] common = new Container[commonKeys.length];
+        int n = 0;
+        for(int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+            if(keys[i] < other.keys[j]) {
+                i++;
+            } else if(other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Container container = containers[i++].and(other.containers[j++]);
+                if(container.cardinality > 0) {
+                    commonKeys[n] = keys[i - 1];
+                    common[n++] = container;
+                }
+            }
+        }
+        result.keys = Arrays.copyOf(commonKeys, n);
+        result.containers = Arrays.copyOf(common, n);
+        return result;
+    }
+
+    Bitmap copy() {
+        Bitmap copy = new Bitmap();
+        copy.keys = keys.clone();
+        copy.containers = new Container[containers.length];
+        for(int i = 0; i < containers.length; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        return copy;
+    }
+
+    //Calls ACTION with every value in the set, in increasing order
+    void forEach(IntConsumer action) {
+        for(int i = 0; i < keys.length; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(keys.length);
+        for(int i = 0; i < keys.length; i++) {
+            out.writeChar(keys[i]);
+            containers[i].write(out);
+        }
+    }
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap bitmap = new Bitmap();
+        int count = in.readInt();
+        bitmap.keys = new char[count];
+        bitmap.containers = new Container[count];
+        for(int i = 0; i < count; i++) {
+            bitmap.keys[i] = in.readChar();
+            bitmap.containers[i] = Container.read(in);
+        }
+        return bitmap;
+    }
+
+    private static char[] insert(char[] array, int index, char value) {
+        char[] grown = new char[array.length + 1];
+        System.arraycopy(array, 0, grown, 0, index);
+        grown[index] = value;
+        System.arraycopy(array, index, grown, index + 1, array.length - index);
+        return grown;
+    }
+
+    /** The low 16 bits of the values sharing one key: a sorted array while small, a bitmap once full */
+    private static class Container {
+        /** The sorted values, of which the first cardinality are in use, or null once this is a bitmap. A container
+         *  is a bitmap exactly when it holds more than ARRAY_MAX values */
+        private char[] array = new char[4];
+        private long[] bits;
+        private int cardinality = 0;
+
+        void add(char value) {
+            if(bits != null) {
+                if((bits[value >>> 6] & (1L << value)) == 0) cardinality++;
+                bits[value >>> 6] |= 1L << value;
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, value);
+            if(i >= 0) return;
+            i = -i - 1;
+            if(cardinality == ARRAY_MAX) {
+                toBits();
+                add(value);
+                return;
+            }
+            if(cardinality == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_MAX, array.length * 2));
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = value;
+            cardinality++;
+        }
+
+        boolean contains(char value) {
+            if(bits != null) return (bits[value >>> 6] & (1L << value)) != 0;
+            return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+        }
+
+        Container or(Container other) {
+            if(bits == null && other.bits == null && cardinality + other.cardinality <= ARRAY_MAX) {
+                Container result = new Container();
+                result.array = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0, j = 0, n = 0;
+                while(i < cardinality || j < other.cardinality) {
+                    char next;
+                    if(j == other.cardinality || (i < cardinality && array[i] < other.array[j])) {
+                        next = array[i++];
+                    } else if(i == cardinality || other.array[j] < array[i]) {
+                        next = other.array[j++];
+                    } else {
+                        next = array[i++];
+                        j++;
+                    }
+                    result.array[n++] = next;
+                }
+                result.cardinality = n;
+                return result;
+            }
+            Container result = copy();
+            result.toBits();
+            if(other.bits != null) {
+                int count = 0;
+                for(int w = 0; w < WORDS; w++) {
+                    result.bits[w] |= other.bits[w];
+                    count += Long.bitCount(result.bits[w]);
+                }
+                result.cardinality = count;
+            } else {
+                for(int k = 0; k < other.cardinality; k++) {
+                    result.add(other.array[k]);
+                }
+            }
+            if(result.cardinality <= ARRAY_MAX) result.toArray();
+            return result;
+        }
+
+        Container and(Container other) {
+            Container result = new Container();
+            if(bits != null && other.bits != null) {
+                result.bits = new long[WORDS];
+                int count = 0;
+                for(int w = 0; w < WORDS; w++) {
+                    result.bits[w] = bits[w] & other.bits[w];
+                    count += Long.bitCount(result.bits[w]);
+                }
+                result.array = null;
+                result.cardinality = count;
+                if(count <= ARRAY_MAX) result.toArray();
+                return result;
+            }
+            //At least one side is an array, so the result is no larger than it
+            Container small = (bits == null) ? this : other, large = (small == this) ? other : this;
+            result.array = new char[Math.max(4, small.cardinality)];
+            for(int k = 0; k < small.cardinality; k++) {
+                if(large.contains(small.array[k])) result.array[result.cardinality++] = small.array[k];
+            }
+            return result;
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            copy.array = (array == null) ? null : array.clone();
+            copy.bits = (bits == null) ? null : bits.clone();
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if(bits == null) {
+                for(int k = 0; k < cardinality; k++) {
+                    action.accept(high | array[k]);
+                }
+                return;
+            }
+            for(int w = 0; w < WORDS; w++) {
+                for(long word = bits[w]; word != 0; word &= word - 1) {
+                    action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+
+        private void toBits() {
+            if(bits != null) return;
+            bits = new long[WORDS];
+            for(int k = 0; k < cardinality; k++) {
+                bits[array[k] >>> 6] |= 1L << array[k];
+            }
+            array = null;
+        }
+        private void toArray() {
+            array = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for(int w = 0; w < WORDS; w++) {
+                for(long word = bits[w]; word != 0; word &= word - 1) {
+                    array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                }
+            }
+            bits = null;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(cardinality);
+            if(bits != null) {
+                for(long word : bits) {
+                    out.writeLong(word);
+                }
+            } else {
+                for(int k = 0; k < cardinality; k++) {
+                    out.writeChar(array[k]);
+                }
+            }
+        }
+        static Container read(DataInputStream in) throws IOException {
+            Container container = new Container();
+            container.cardinality = in.readInt();
+            if(container.cardinality > ARRAY_MAX) {
+                container.array = null;
+                container.bits = new long[WORDS];
+                for(int w = 0; w < WORDS; w++) {
+                    container.bits[w] = in.readLong();
+                }
+            } else {
+                container.array = new char[Math.max(4, container.cardinality)];
+                for(int k = 0; k < container.cardinality; k++) {
+                    container.array[k] = in.readChar();
+                }
+            }
+            return container;
+        }
+    }
+}
\ No newline at end of file
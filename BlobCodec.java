@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** Compression of stored blob contents. Every blob written by this version starts with a short header,
+ *  the magic bytes followed by one byte naming the codec of the rest of the file. Blobs without the
+ *  header were written by older versions and are read back as raw contents. Blob ids are always the hash
+ *  of the uncompressed contents, so the codec can be changed at any time through the blob.codec setting.
+ */
+abstract class BlobCodec {
+    private static final byte[] MAGIC = {'G', 'L', 'B', 0};
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+    /** Blobs of at least this many bytes are chunked unless the chunk.threshold setting says otherwise */
+    static final long CHUNK_THRESHOLD = 1 << 20;
+
+    /** Stores contents unchanged */
+    static final BlobCodec NONE = new BlobCodec(0, "none") {
+        OutputStream encode(OutputStream out) {
+            return out;
+        }
+        InputStream decode(InputStream in) {
+            return in;
+        }
+    };
+    /** zlib deflate at the default level: smallest output */
+    static final BlobCodec DEFLATE = new DeflateCodec(1, "deflate", Deflater.DEFAULT_COMPRESSION);
+    /** zlib deflate at its fastest level: an LZ4-style trade of ratio for speed */
+    static final BlobCodec FAST = new DeflateCodec(2, "fast", Deflater.BEST_SPEED);
+
+    /** A manifest of content-defined chunks stored and shared through ChunkStore */
+    static final BlobCodec CHUNKED = new BlobCodec(3, "chunked") {
+        OutputStream encode(OutputStream out) {
+            return ChunkStore.chunking(out);
+        }
+        InputStream decode(InputStream in) {
+            return ChunkStore.reassemble(in);
+        }
+    };
+
+    private static final BlobCodec[] CODECS = {NONE, DEFLATE, FAST, CHUNKED};
+
+    final int id;
+    final String name;
+
+    BlobCodec(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    //Wraps a stream so that bytes written to it are compressed
+    abstract OutputStream encode(OutputStream out) throws IOException;
+    //Wraps a stream of compressed bytes so that reading it returns the original contents
+    abstract InputStream decode(InputStream in) throws IOException;
+
+    static BlobCodec forName(String name) {
+        for(BlobCodec codec : CODECS) {
+            if(codec.name.equals(name)) return codec;
+        }
+        return null;
+    }
+    private static BlobCodec forId(int id) {
+        for(BlobCodec codec : CODECS) {
+            if(codec.id == id) return codec;
+        }
+        throw error("Blob written with unknown codec %d.", id);
+    }
+
+    //The codec selected by the repository config, deflate if none is set
+    static BlobCodec configured() {
+        BlobCodec codec = forName(Config.get(Config.BLOB_CODEC, DEFLATE.name));
+        return (codec == null) ? DEFLATE : codec;
+    }
+
+    //The codec for a blob of SIZE bytes: chunked from the chunk.threshold setting up, otherwise as configured
+    static BlobCodec forSize(long size) {
+        long threshold;
+        try {
+            threshold = Long.parseLong(Config.get(Config.CHUNK_THRESHOLD, String.valueOf(CHUNK_THRESHOLD)));
+        } catch (NumberFormatException excp) {
+            threshold = CHUNK_THRESHOLD;
+        }
+        return (size >= threshold) ? CHUNKED : configured();
+    }
+
+    //Opens a stream that writes a blob of SIZE bytes into OBJECT; the header is written immediately. The manifest of
+    //a chunked blob is held in memory until it is complete, as its chunks are written to the store meanwhile
+    static OutputStream newBlobStream(ObjectStore.NewObject object, long size) {
+        BlobCodec codec = forSize(size);
+        if(codec == CHUNKED) object.defer();
+        try {
+            OutputStream out = new BufferedOutputStream(object, STREAM_BUFFER);
+            out.write(MAGIC);
+            out.write(codec.id);
+            return codec.encode(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    //Writes the uncompressed contents of a stored blob to a file
+    static void checkout(String code, File dest) {
+        ObjectStore.Location location = ObjectStore.locate(ObjectStore.Kind.BLOB, code);
+
+        //Uncompressed blobs are copied without passing through the heap. Blobs packed as deltas have no region of
+        //their own and are rebuilt by open()
+        if(location != null) {
+            int codecId = readHeader(location);
+            if(codecId < 0) {
+                copyContents(location.file, location.position, location.length, dest);
+                return;
+            } else if(codecId == NONE.id) {
+                copyContents(location.file, location.position + HEADER_LENGTH, location.length - HEADER_LENGTH, dest);
+                return;
+            }
+        }
+
+        try(InputStream in = open(code); OutputStream out = Files.newOutputStream(dest.toPath())) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", code, excp.getMessage());
+        }
+    }
+
+    //Returns the uncompressed contents of a stored blob
+    static byte[] read(String code) {
+        try(InputStream in = open(code)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", code, excp.getMessage());
+        }
+    }
+
+    //Returns the uncompressed contents held in the stored form of a blob
+    static byte[] unwrap(byte[] stored) {
+        try(InputStream in = decode(new BufferedInputStream(new ByteArrayInputStream(stored)))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Could not decode blob: %s", excp.getMessage());
+        }
+    }
+    //Returns the stored form of a blob or chunk holding CONTENTS, written with the configured codec. Contents that
+    //are already held in memory are never chunked, so a chunked configuration deflates them instead
+    static byte[] wrap(byte[] contents) {
+        BlobCodec codec = (configured() == CHUNKED) ? DEFLATE : configured();
+        ByteArrayOutputStream stored = new ByteArrayOutputStream(contents.length / 2 + HEADER_LENGTH);
+        stored.write(MAGIC, 0, MAGIC.length);
+        stored.write(codec.id);
+        try(OutputStream out = codec.encode(stored)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw error("Could not encode blob: %s", excp.getMessage());
+        }
+        return stored.toByteArray();
+    }
+    //Returns the stored form of a blob holding CONTENTS, written with the codec NONE
+    static byte[] wrapUncompressed(byte[] contents) {
+        byte[] stored = Arrays.copyOf(MAGIC, HEADER_LENGTH + contents.length);
+        stored[MAGIC.length] = (byte) NONE.id;
+        System.arraycopy(contents, 0, stored, HEADER_LENGTH, contents.length);
+        return stored;
+    }
+
+    //Opens a stream over the uncompressed contents of a stored blob
+    static InputStream open(String code) throws IOException {
+        InputStream in = ObjectStore.open(ObjectStore.Kind.BLOB, code);
+        if(in == null) throw error("Missing blob %s.", code);
+        return decode(new BufferedInputStream(in, STREAM_BUFFER));
+    }
+    //Returns the uncompressed contents of a blob file outside the store, such as a staged file
+    static byte[] readFile(File file) {
+        try(InputStream in = decode(new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Could not read blob %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+    //Decodes a stream over stored blob contents according to its header
+    static InputStream decode(BufferedInputStream in) throws IOException {
+        in.mark(HEADER_LENGTH);
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if(!hasMagic(header)) {
+            in.reset();
+            return in;
+        }
+        return forId(header[MAGIC.length]).decode((InputStream) in);
+    }
+
+    //Returns the codec id in the header of a stored blob, or -1 for a headerless blob
+    private static int readHeader(ObjectStore.Location location) {
+        if(location.length < HEADER_LENGTH) return -1;
+        byte[] header = new byte[HEADER_LENGTH];
+        try(RandomAccessFile file = new RandomAccessFile(location.file, "r")) {
+            file.seek(location.position);
+            file.readFully(header);
+        } catch (IOException excp) {
+            throw error("Could not read blob: %s", excp.getMessage());
+        }
+        return hasMagic(header) ? header[MAGIC.length] : -1;
+    }
+    //Returns whether a stored blob is a manifest of chunks. Blobs packed as deltas never are
+    static boolean isChunked(String code) {
+        ObjectStore.Location location = ObjectStore.locate(ObjectStore.Kind.BLOB, code);
+        return location != null && readHeader(location) == CHUNKED.id;
+    }
+    static boolean isChunked(byte[] stored) {
+        return hasMagic(stored) && stored[MAGIC.length] == CHUNKED.id;
+    }
+
+    private static boolean hasMagic(byte[] header) {
+        if(header.length < HEADER_LENGTH) return false;
+        for(int i = 0; i < MAGIC.length; i++) {
+            if(header[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /** Codecs built on java.util.zip */
+    private static class DeflateCodec extends BlobCodec {
+        private final int level;
+
+        DeflateCodec(int id, String name, int level) {
+            super(id, name);
+            this.level = level;
+        }
+
+        OutputStream encode(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(level), STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+        //The Inflater holds native memory until end(), so closing the stream releases it
+        InputStream decode(InputStream in) {
+            return new InflaterInputStream(in, new Inflater(), STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inf.end();
+                    }
+                }
+            };
+        }
+    }
+}
\ No newline at end of file
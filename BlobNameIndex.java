@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** Maps blob ids to the names of the files they were staged from. The mapping lives in a single
+ *  sorted table that is memory-mapped and binary searched, plus a small append-only log of changes
+ *  made since the table was last written. Both are loaded lazily, once per process, and the log is
+ *  folded back into the table once it grows past COMPACT_THRESHOLD entries.
+ *
+ *  Table layout: magic, entry count, then one record per blob sorted by id (20-byte id, 4-byte offset
+ *  of its name), then the names, each a 4-byte length followed by UTF-8 bytes. Tables written by older
+ *  versions, under MAGIC_V1, have 2-byte lengths; they are still read and rewritten at the next compaction.
+ */
+class BlobNameIndex {
+    private static final int MAGIC = 0x47424e32; // "GBN2"
+    private static final int MAGIC_V1 = 0x47424e49; // "GBNI"
+    private static final int HEADER = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD = ID_BYTES + 4;
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    /** The memory-mapped sorted table, or null if it has not been written yet */
+    private static MappedByteBuffer table;
+    private static int count;
+    /** Whether the table stores name lengths in 2 bytes, as tables under MAGIC_V1 do */
+    private static boolean shortLengths;
+    /** Changes recorded in the log since the table was written; removed ids map to null */
+    private static HashMap<String, String> changes;
+
+    static String get(String code) {
+        load();
+        if(changes.containsKey(code)) return changes.get(code);
+
+        int record = find(ObjectStore.toBytes(code));
+        return (record < 0) ? null : nameAt(record);
+    }
+
+    static void put(String code, String name) {
+        load();
+        if(name.equals(get(code))) return;
+        changes.put(code, name);
+        appendLog("+ " + code + " " + name + "\n");
+    }
+
+    static void remove(String code) {
+        load();
+        if(get(code) == null) return;
+        changes.put(code, null);
+        appendLog("- " + code + "\n");
+    }
+
+    //Drops the names of every blob for which KEEP returns false, returning how many were dropped
+    static int retain(Predicate<String> keep) {
+        load();
+        int dropped = 0;
+        for(int i = 0; i < count; i++) {
+            String code = idAt(i);
+            if(!changes.containsKey(code) && !keep.test(code)) {
+                changes.put(code, null);
+                dropped++;
+            }
+        }
+        for(Map.Entry<String, String> change : changes.entrySet()) {
+            if(change.getValue() != null && !keep.test(change.getKey())) {
+                change.setValue(null);
+                dropped++;
+            }
+        }
+        if(dropped > 0) compact();
+        return dropped;
+    }
+
+    private static void load() {
+        if(changes != null) return;
+        changes = new HashMap<>();
+
+        mapTable();
+
+        if(Repository.BLOB_INDEX_LOG.isFile()) {
+            for(String line : readContentsAsString(Repository.BLOB_INDEX_LOG).split("\n")) {
+                if(line.startsWith("+ ")) {
+                    changes.put(line.substring(2, 2 + UID_LENGTH), line.substring(3 + UID_LENGTH));
+                } else if(line.startsWith("- ")) {
+                    changes.put(line.substring(2, 2 + UID_LENGTH), null);
+                }
+            }
+        }
+
+        //Repositories created by older versions kept one file per blob in the blob-names directory
+        List<String> legacy = plainFilenamesIn(Repository.BLOB_NAMES);
+        if(legacy != null) {
+            for(String code : legacy) {
+                changes.put(code, readContentsAsString(join(Repository.BLOB_NAMES, code)));
+            }
+            compact();
+            for(String code : legacy) {
+                join(Repository.BLOB_NAMES, code).delete();
+            }
+            Repository.BLOB_NAMES.delete();
+        }
+    }
+
+    private static void appendLog(String entry) {
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(Repository.BLOB_INDEX_LOG, true),
+                StandardCharsets.UTF_8)) {
+            out.write(entry);
+        } catch (IOException excp) {
+            throw error("Could not write blob index: %s", excp.getMessage());
+        }
+        if(changes.size() > COMPACT_THRESHOLD) compact();
+    }
+
+    //Folds the logged changes into a new sorted table and empties the log
+    private static void compact() {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for(int i = 0; i < count; i++) {
+            entries.put(idAt(i), nameAt(i));
+        }
+        for(Map.Entry<String, String> change : changes.entrySet()) {
+            if(change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        ByteBuffer records = ByteBuffer.allocate(HEADER + RECORD * entries.size());
+        records.putInt(MAGIC).putInt(entries.size());
+        int offset = records.capacity();
+        for(Map.Entry<String, String> entry : entries.entrySet()) {
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            records.put(ObjectStore.toBytes(entry.getKey())).putInt(offset + names.size());
+            names.write(name.length >>> 24);
+            names.write(name.length >>> 16);
+            names.write(name.length >>> 8);
+            names.write(name.length);
+            names.write(name, 0, name.length);
+        }
+
+        File temp = join(Repository.GITLET_DIR, "blob-index.tmp");
+        writeContents(temp, records.array(), names.toByteArray());
+        table = null;
+        count = 0;
+        if(!temp.renameTo(Repository.BLOB_INDEX)) {
+            Repository.BLOB_INDEX.delete();
+            temp.renameTo(Repository.BLOB_INDEX);
+        }
+        Repository.BLOB_INDEX_LOG.delete();
+        changes.clear();
+        mapTable();
+    }
+
+    private static void mapTable() {
+        if(!Repository.BLOB_INDEX.isFile()) return;
+        try(FileChannel channel = FileChannel.open(Repository.BLOB_INDEX.toPath())) {
+            table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Could not read blob index: %s", excp.getMessage());
+        }
+        if(table.getInt(0) != MAGIC && table.getInt(0) != MAGIC_V1) throw error("Corrupt blob index.");
+        shortLengths = table.getInt(0) == MAGIC_V1;
+        count = table.getInt(4);
+    }
+
+    private static int find(byte[] key) {
+        int lo = 0, hi = count - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if(cmp < 0) {
+                lo = mid + 1;
+            } else if(cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    private static int compareId(int record, byte[] key) {
+        int base = HEADER + record * RECORD;
+        for(int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(table.get(base + i) & 0xff, key[i] & 0xff);
+            if(cmp != 0) return cmp;
+        }
+        return 0;
+    }
+    private static String idAt(int record) {
+        byte[] id = new byte[ID_BYTES];
+        table.get(HEADER + record * RECORD, id);
+        return ObjectStore.toHex(id);
+    }
+    private static String nameAt(int record) {
+        int offset = table.getInt(HEADER + record * RECORD + ID_BYTES);
+        int length = shortLengths ? table.getShort(offset) & 0xffff : table.getInt(offset);
+        byte[] name = new byte[length];
+        table.get(offset + (shortLengths ? 2 : 4), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
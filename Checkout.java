@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static gitlet.Utils.*;
+
+/** Applies a set of working-tree changes on a bounded pool of workers: first every deletion, then every
+ *  write. Blobs are streamed into place byte for byte, so binary files come out exactly as they were added.
+ */
+class Checkout {
+    /** Writing files is bound by the disk as much as the CPU, so allow a few more workers than cores */
+    private static final int WORKERS = Math.min(2 * Runtime.getRuntime().availableProcessors(), 16);
+
+    //Deletes each path in DELETES, then writes each path in WRITES from its blob. Paths are relative to CWD
+    static void apply(Collection<String> deletes, Map<String, String> writes) {
+        if(deletes.size() + writes.size() <= 1) {
+            //Not worth starting a pool for
+            for(String path : deletes) {
+                delete(path);
+            }
+            for(Map.Entry<String, String> write : writes.entrySet()) {
+                write(write.getKey(), write.getValue());
+            }
+            return;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "gitlet-checkout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Callable<Void>> deletions = new ArrayList<>();
+            for(String path : deletes) {
+                deletions.add(() -> {
+                    delete(path);
+                    return null;
+                });
+            }
+            //Deletions finish before any write starts, so pruning an emptied directory never races a write into it
+            await(workers.invokeAll(deletions));
+
+            List<Callable<Void>> copies = new ArrayList<>();
+            for(Map.Entry<String, String> write : writes.entrySet()) {
+                copies.add(() -> {
+                    write(write.getKey(), write.getValue());
+                    return null;
+                });
+            }
+            await(workers.invokeAll(copies));
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Checkout interrupted.");
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    //Rethrows the first failure among finished tasks
+    private static void await(List<Future<Void>> tasks) throws InterruptedException {
+        for(Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw error("Checkout failed: %s", cause);
+            }
+        }
+    }
+
+    //Writes the contents of a blob to a working file, creating its directories as needed
+    static void write(String path, String blob) {
+        File file = join(Repository.CWD, path);
+        file.getParentFile().mkdirs();
+        BlobCodec.checkout(blob, file);
+    }
+
+    //Deletes a working file, along with any of its directories that are left empty
+    static void delete(String path) {
+        File file = join(Repository.CWD, path);
+        file.delete();
+        File dir = file.getParentFile();
+        while(!dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Content-defined chunking of large blobs. Contents are cut into chunks wherever a gear hash of the bytes
+ *  just written matches a fixed bit pattern, so a boundary depends only on the bytes around it: an insertion
+ *  or deletion moves the boundaries next to it and leaves every other chunk unchanged. Each chunk is stored
+ *  once, as an object of kind CHUNK named by the hash of its bytes, and a chunked blob is only a manifest of
+ *  its chunks. Copies, renames and new versions of a large file therefore share all of their unchanged chunks,
+ *  even though each has its own blob id.
+ *
+ *  Chunks are written to the pending pack when a file is added, without syncing. The commit that takes the file
+ *  makes them durable along with every other object it wrote, see ObjectStore.flush.
+ *
+ *  Manifest layout, after the blob header: one record per chunk, in order: 20-byte chunk id, 4-byte length.
+ */
+class ChunkStore {
+    /** Chunks are never cut shorter than MIN_CHUNK bytes, except at the end, nor longer than MAX_CHUNK */
+    private static final int MIN_CHUNK = 4 << 10;
+    private static final int MAX_CHUNK = 64 << 10;
+    /** A boundary is one hash in 2^14 past the minimum, so chunks average around 20 KiB. The top bits are tested
+     *  because each byte is shifted up as later bytes arrive, so they depend on the last 64 bytes, not the last 14 */
+    private static final long MASK = ((1L << 14) - 1) << 50;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** A random value for each byte, mixed into the hash as the byte is written */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6765617248617368L;
+        for(int i = 0; i < GEAR.length; i++) {
+            //splitmix64, so the table is the same in every process
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** A chunk named by a manifest */
+    static class Reference {
+        final String id;
+        final int length;
+
+        Reference(String id, int length) {
+            this.id = id;
+            this.length = length;
+        }
+    }
+
+    //Wraps a stream so that contents written to it are stored as chunks and their manifest is written to OUT
+    static OutputStream chunking(OutputStream out) {
+        return new ChunkingOutputStream(out);
+    }
+
+    //Wraps a stream over a manifest so that reading it returns the contents of the chunks it names
+    static InputStream reassemble(InputStream manifest) {
+        DataInputStream in = new DataInputStream(manifest);
+        Enumeration<InputStream> chunks = new Enumeration<InputStream>() {
+            private Reference next = readReference(in);
+
+            @Override
+            public boolean hasMoreElements() {
+                return next != null;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                InputStream chunk = open(next.id);
+                next = readReference(in);
+                return chunk;
+            }
+        };
+        return new SequenceInputStream(chunks) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                in.close();
+            }
+        };
+    }
+
+    //Returns the chunks of a stored blob, or null if the blob is not chunked
+    static List<Reference> manifest(String code) {
+        InputStream stored = ObjectStore.open(ObjectStore.Kind.BLOB, code);
+        if(stored == null) throw error("Missing blob %s.", code);
+        return manifest(stored);
+    }
+    //Returns the chunks of a blob file outside the store, such as a staged file, or null if it is not chunked
+    static List<Reference> manifest(File file) {
+        try {
+            return manifest(new FileInputStream(file));
+        } catch (FileNotFoundException excp) {
+            throw error("Could not read blob %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+    //Reads the chunks named by the stored form of a blob, reading no further than its header if it is not chunked
+    private static List<Reference> manifest(InputStream stored) {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(stored))) {
+            if(!BlobCodec.isChunked(in.readNBytes(BlobCodec.HEADER_LENGTH))) return null;
+            List<Reference> references = new ArrayList<>();
+            for(Reference reference = readReference(in); reference != null; reference = readReference(in)) {
+                references.add(reference);
+            }
+            return references;
+        } catch (IOException excp) {
+            throw error("Could not read chunk manifest: %s", excp.getMessage());
+        }
+    }
+
+    private static Reference readReference(DataInputStream in) {
+        byte[] id = new byte[ID_BYTES];
+        try {
+            int n = in.readNBytes(id, 0, ID_BYTES);
+            if(n == 0) return null;
+            if(n < ID_BYTES) throw error("Corrupt chunk manifest.");
+            return new Reference(ObjectStore.toHex(id), in.readInt());
+        } catch (IOException excp) {
+            throw error("Corrupt chunk manifest.");
+        }
+    }
+
+    private static InputStream open(String id) {
+        InputStream in = ObjectStore.open(ObjectStore.Kind.CHUNK, id);
+        if(in == null) throw error("Missing chunk %s.", id);
+        try {
+            return BlobCodec.decode(new BufferedInputStream(in, STREAM_BUFFER));
+        } catch (IOException excp) {
+            throw error("Could not read chunk %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /** Cuts the bytes written to it into chunks, storing each chunk that is not already in the store */
+    private static class ChunkingOutputStream extends OutputStream {
+        private final DataOutputStream manifest;
+        private final byte[] chunk = new byte[MAX_CHUNK];
+        private int length = 0;
+        private long hash = 0;
+
+        ChunkingOutputStream(OutputStream manifest) {
+            this.manifest = new DataOutputStream(manifest);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            chunk[length++] = (byte) b;
+            hash = (hash << 1) + GEAR[b & 0xff];
+            if(length == MAX_CHUNK || (length >= MIN_CHUNK && (hash & MASK) == 0)) cut();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for(int i = off; i < off + len; i++) {
+                chunk[length++] = b[i];
+                hash = (hash << 1) + GEAR[b[i] & 0xff];
+                if(length == MAX_CHUNK || (length >= MIN_CHUNK && (hash & MASK) == 0)) cut();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(length > 0) cut();
+            manifest.close();
+        }
+
+        private void cut() throws IOException {
+            byte[] contents = Arrays.copyOf(chunk, length);
+            String id = sha1(contents);
+            if(!ObjectStore.exists(ObjectStore.Kind.CHUNK, id)) {
+                ObjectStore.write(ObjectStore.Kind.CHUNK, id, BlobCodec.wrap(contents));
+            }
+            manifest.write(ObjectStore.toBytes(id));
+            manifest.writeInt(length);
+            length = 0;
+            hash = 0;
+        }
+    }
+}
\ No newline at end of file
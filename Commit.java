@@ -1,11 +1,22 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static gitlet.Utils.*;
 
+/** A commit. Commits are stored in an explicit, versioned binary encoding (see encode()) and their id is the
+ *  SHA-1 of that encoding. Commits written by older versions used Java serialization; they are still read,
+ *  and the migrate command rewrites them in the current encoding.
+ */
 public class Commit implements Serializable {
+    /** Matches the serialized form written by earlier versions, so their commits still read */
+    private static final long serialVersionUID = -5936634746992129457L;
+    /** Marks the start of an encoded commit; a Java-serialized commit starts with 0xACED instead */
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+    private static final int VERSION = 1;
+
     /** The message of this gitlet.Commit */
     private final String message;
     /** ID of parent commit */
@@ -14,34 +25,117 @@ public class Commit implements Serializable {
     private final String parent2;
     /** The date that this gitlet.Commit was created */
     private final Date date;
-    /** List containing ids of blobs tracked by this commit */
-    private final ArrayList<String> blobs;
-    /** HashMap mapping filenames to blob codes */
+    /** ID of the tree holding the files tracked by this commit, null if it tracks none */
+    private final String tree;
+    /** HashMap mapping filenames to blob codes. Only present in commits written by older versions,
+     *  which listed every file instead of pointing to a tree */
     private final HashMap<String, String> file_codes;
+    /** Filenames mapped to blob codes, flattened from the tree when first needed */
+    private transient HashMap<String, String> files;
+    /** Run once files has been filled in, so a cache holding this commit can weigh it again */
+    private transient Runnable onFlatten;
+    /** ID of the tree built from file_codes, for commits written before trees existed, once first needed */
+    private transient String builtTree;
 
-    public Commit(String message, String parent1, String parent2, ArrayList<String> blobs) {
+    public Commit(String message, String parent1, String parent2, String tree) {
+        this(message, parent1, parent2, tree, (parent1 == null) ? new Date(0) : new Date());
+    }
+    Commit(String message, String parent1, String parent2, String tree, Date date) {
         this.message = message;
         parent = parent1;
         this.parent2 = parent2;
-        this.blobs = blobs;
-        if(parent == null) {
-            date = new Date(0);
-        } else {
-            date = new Date();
+        this.tree = tree;
+        this.date = date;
+        file_codes = null;
+    }
+
+    //Reads a commit from the object store, returning null if there is no commit with that code
+    public static Commit read(String code) {
+        byte[] contents = ObjectStore.read(ObjectStore.Kind.COMMIT, code);
+        if(contents == null) return null;
+        return isEncoded(contents) ? decode(contents) : deserialize(contents, Commit.class);
+    }
+    //Estimates the heap used by this commit in bytes, for weighing it in a cache
+    long weight() {
+        long size = 256 + 2L * message.length();
+        size += 200L * (files != null ? files.size() : file_codes != null ? file_codes.size() : 0);
+        return size;
+    }
+    //Sets an action to run when the files of this commit are first flattened from its tree, which is when its
+    //weight grows
+    void whenFlattened(Runnable action) {
+        onFlatten = action;
+    }
+    //Returns whether stored commit contents use the current encoding rather than Java serialization
+    static boolean isEncoded(byte[] contents) {
+        return contents.length >= 4 && ((contents[0] & 0xff) << 24 | (contents[1] & 0xff) << 16
+                | (contents[2] & 0xff) << 8 | (contents[3] & 0xff)) == MAGIC;
+    }
+
+    //Encodes this commit: magic, version, a byte of flags (1 = has tree, 2 = has first parent, 4 = has second
+    //parent), the present ids as 20 raw bytes each, the date in milliseconds, then the UTF-8 message
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            String tree = getTree();
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte((tree != null ? 1 : 0) | (parent != null ? 2 : 0) | (parent2 != null ? 4 : 0));
+            for(String id : new String[] {tree, parent, parent2}) {
+                if(id != null) out.write(ObjectStore.toBytes(id));
+            }
+            out.writeLong(date.getTime());
+            byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+    static Commit decode(byte[] contents) {
+        try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            in.readInt();
+            int version = in.readUnsignedByte();
+            if(version != VERSION) throw error("Commit written by a newer version of gitlet.");
+            int flags = in.readUnsignedByte();
+            String[] ids = new String[3];
+            for(int i = 0; i < ids.length; i++) {
+                if((flags & (1 << i)) != 0) {
+                    byte[] id = new byte[UID_LENGTH / 2];
+                    in.readFully(id);
+                    ids[i] = ObjectStore.toHex(id);
+                }
+            }
+            Date date = new Date(in.readLong());
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            return new Commit(new String(text, StandardCharsets.UTF_8), ids[1], ids[2], ids[0], date);
+        } catch (IOException excp) {
+            throw error("Corrupt commit.");
         }
-        file_codes = createHashMap();
     }
 
-    //Commits this commit: adds this commit to the commits directory
+    //Commits this commit: adds this commit to the object store. The commit graph and message index are only
+    //told about it once a branch points at it, see Repository.commit
     public String commit() {
-        String code = sha1(serialize(this));
-        writeObject(join(Repository.COMMITS, code), this);
+        byte[] contents = encode();
+        String code = sha1(contents);
+        ObjectStore.write(ObjectStore.Kind.COMMIT, code, contents);
         return code;
     }
 
 
     public List<String> getBlobs() {
-        return blobs;
+        return new ArrayList<>(getHashMap().values());
+    }
+    //Returns the id of this commit's tree, building one for commits written before trees existed
+    public String getTree() {
+        if(tree == null && file_codes != null && !file_codes.isEmpty()) {
+            if(builtTree == null) builtTree = Tree.update(null, file_codes);
+            return builtTree;
+        }
+        return tree;
     }
     public String getParent() {
         return parent;
@@ -54,22 +148,25 @@ public class Commit implements Serializable {
         return message;
     }
 
-    //Returns a HashMap mapping blob codes to file names and file names to blob codes
-    private HashMap<String, String> createHashMap() {
-        HashMap<String, String> map = new HashMap<>();
-        if(blobs == null) return map;
-
-        for(String blob : blobs) {
-            String name = Repository.getBlobName(blob);
-            map.put(name, blob);
-        }
-        return map;
+    //Returns the code of the blob tracked under a filename, or null if the file is not tracked
+    public String getBlob(String file) {
+        if(files != null) return files.get(file);
+        if(file_codes != null) return file_codes.get(file);
+        return Tree.lookup(tree, file);
     }
-
     public List<String> getFileNames() {
-        return new ArrayList<>(file_codes.keySet());
+        return new ArrayList<>(getHashMap().keySet());
     }
     public HashMap<String, String> getHashMap() {
-        return file_codes;
+        if(files == null) {
+            if(file_codes != null) {
+                files = file_codes;
+            } else {
+                files = new HashMap<>();
+                Tree.flatten(tree, "", files);
+            }
+            if(onFlatten != null) onFlatten.run();
+        }
+        return files;
     }
 }
\ No newline at end of file
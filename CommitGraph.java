@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** The commit graph in .gitlet/commit-graph: one fixed-size record per commit holding its id, the
+ *  positions of its parents and its generation number (one more than the largest generation of its
+ *  parents, 1 for a root). Records are only ever appended, parents before children, so the position of
+ *  a commit never changes. Commits that are missing from the file, such as those written by older
+ *  versions, are added the first time they are looked up.
+ *
+ *  Ancestry questions are answered from the graph alone, without reading any commit objects.
+ */
+class CommitGraph {
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD = ID_BYTES + 12;
+    private static final int NONE = -1;
+
+    private static ArrayList<String> ids;
+    private static HashMap<String, Integer> positions;
+    private static int[] parents = new int[0];
+    private static int[] secondParents = new int[0];
+    private static int[] generations = new int[0];
+
+    //Returns the position of a commit in the graph, adding it and any missing ancestors first
+    static int positionOf(String code) {
+        load();
+        Integer position = positions.get(code);
+        if(position != null) return position;
+
+        //Add missing commits parents-first, without recursing once per generation
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(code);
+        while(!stack.isEmpty()) {
+            String top = stack.peek();
+            if(positions.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = Commit.read(top);
+            if(commit == null) throw error("No commit with that id exists.");
+            String parent = commit.getParent(), parent2 = commit.getSecondParent();
+            boolean ready = true;
+            if(parent != null && !positions.containsKey(parent)) {
+                stack.push(parent);
+                ready = false;
+            }
+            if(parent2 != null && !positions.containsKey(parent2)) {
+                stack.push(parent2);
+                ready = false;
+            }
+            if(ready) {
+                stack.pop();
+                append(top, parent, parent2);
+            }
+        }
+        return positions.get(code);
+    }
+
+    //Records a newly written commit, whose parents must already be in the store
+    static void add(String code, String parent, String parent2) {
+        load();
+        if(parent != null) positionOf(parent);
+        if(parent2 != null) positionOf(parent2);
+        if(!positions.containsKey(code)) append(code, parent, parent2);
+    }
+
+    //Forgets the graph, for when commits have been deleted from the store. It is rebuilt as commits are looked up
+    static void clear() {
+        ids = null;
+        Repository.COMMIT_GRAPH.delete();
+        ReachabilityBitmaps.clear();
+    }
+
+    //Returns the number of commits in the graph
+    static int size() {
+        load();
+        return ids.size();
+    }
+    static String idAt(int position) {
+        return ids.get(position);
+    }
+    //Returns the position of the first parent of a commit, or -1 for a root commit
+    static int parentOf(int position) {
+        return parents[position];
+    }
+    static int secondParentOf(int position) {
+        return secondParents[position];
+    }
+    static int generationOf(int position) {
+        return generations[position];
+    }
+
+    //Returns the lowest common ancestor of two commits. Both sides are walked together in order of decreasing
+    //generation number, so the first commit reached from both sides has no common ancestor below it, and second
+    //parents are followed on both sides. When both commits are branch tips the common ancestors are the
+    //intersection of their reachability bitmaps instead, and the walk's answer is the one of highest generation
+    static String mergeBase(String a, String b) {
+        int first = positionOf(a), second = positionOf(b);
+        if(first == second) return a;
+
+        Bitmap fromFirst = ReachabilityBitmaps.get(first), fromSecond = ReachabilityBitmaps.get(second);
+        if(fromSecond != null && fromSecond.contains(first)) return a;
+        if(fromFirst != null && fromFirst.contains(second)) return b;
+        if(fromFirst != null && fromSecond != null) {
+            int[] best = {NONE};
+            fromFirst.and(fromSecond).forEach(position -> {
+                if(best[0] == NONE || generations[position] >= generations[best[0]]) best[0] = position;
+            });
+            return (best[0] == NONE) ? null : ids.get(best[0]);
+        }
+
+        byte[] reached = new byte[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> generations[x] != generations[y]
+                ? Integer.compare(generations[y], generations[x]) : Integer.compare(y, x));
+        reached[first] |= 1;
+        reached[second] |= 2;
+        queue.add(first);
+        queue.add(second);
+
+        while(!queue.isEmpty()) {
+            int position = queue.poll();
+            if(reached[position] == 3) return ids.get(position);
+            for(int parent : new int[] {parents[position], secondParents[position]}) {
+                if(parent != NONE && (reached[parent] | reached[position]) != reached[parent]) {
+                    reached[parent] |= reached[position];
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    //Returns whether ANCESTOR is reachable from DESCENDANT (a commit is its own ancestor). The walk never goes
+    //below the generation of ANCESTOR, nor below a branch tip, whose bitmap answers for everything under it
+    static boolean isAncestor(String ancestor, String descendant) {
+        int target = positionOf(ancestor), start = positionOf(descendant);
+        int generation = generations[target];
+
+        boolean[] seen = new boolean[ids.size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while(!stack.isEmpty()) {
+            int position = stack.pop();
+            if(position == target) return true;
+            if(seen[position] || generations[position] <= generation) continue;
+            Bitmap reachable = ReachabilityBitmaps.get(position);
+            if(reachable != null) {
+                if(reachable.contains(target)) return true;
+                continue;
+            }
+            seen[position] = true;
+            if(parents[position] != NONE) stack.push(parents[position]);
+            if(secondParents[position] != NONE) stack.push(secondParents[position]);
+        }
+        return false;
+    }
+
+    private static void load() {
+        if(ids != null) return;
+        ids = new ArrayList<>();
+        positions = new HashMap<>();
+        if(!Repository.COMMIT_GRAPH.isFile()) return;
+
+        ByteBuffer graph = ByteBuffer.wrap(readContents(Repository.COMMIT_GRAPH));
+        if(graph.getInt() != MAGIC || graph.getInt() != VERSION) {
+            //An unreadable graph is rebuilt from the commits as they are looked up
+            Repository.COMMIT_GRAPH.delete();
+            ReachabilityBitmaps.clear();
+            return;
+        }
+        int count = graph.remaining() / RECORD;
+        if(graph.remaining() % RECORD != 0) {
+            //Drop a record left half-written by an interrupted append
+            try(RandomAccessFile file = new RandomAccessFile(Repository.COMMIT_GRAPH, "rw")) {
+                file.setLength(HEADER + (long) count * RECORD);
+            } catch (IOException excp) {
+                throw error("Could not repair commit graph: %s", excp.getMessage());
+            }
+        }
+        grow(count);
+        byte[] id = new byte[ID_BYTES];
+        for(int i = 0; i < count; i++) {
+            graph.get(id);
+            String code = ObjectStore.toHex(id);
+            ids.add(code);
+            positions.put(code, i);
+            parents[i] = graph.getInt();
+            secondParents[i] = graph.getInt();
+            generations[i] = graph.getInt();
+        }
+    }
+
+    private static void append(String code, String parent, String parent2) {
+        int position = ids.size();
+        int first = (parent == null) ? NONE : positions.get(parent), second = (parent2 == null) ? NONE : positions.get(parent2);
+        int generation = 1 + Math.max(first == NONE ? 0 : generations[first], second == NONE ? 0 : generations[second]);
+
+        grow(position + 1);
+        ids.add(code);
+        positions.put(code, position);
+        parents[position] = first;
+        secondParents[position] = second;
+        generations[position] = generation;
+
+        boolean isNew = !Repository.COMMIT_GRAPH.isFile();
+        ByteBuffer record = ByteBuffer.allocate((isNew ? HEADER : 0) + RECORD);
+        if(isNew) record.putInt(MAGIC).putInt(VERSION);
+        record.put(ObjectStore.toBytes(code)).putInt(first).putInt(second).putInt(generation);
+        try(FileOutputStream out = new FileOutputStream(Repository.COMMIT_GRAPH, true)) {
+            out.write(record.array());
+        } catch (IOException excp) {
+            throw error("Could not write commit graph: %s", excp.getMessage());
+        }
+    }
+
+    private static void grow(int size) {
+        if(size <= parents.length) return;
+        int capacity = Math.max(size, parents.length * 2);
+        parents = Arrays.copyOf(parents, capacity);
+        secondParents = Arrays.copyOf(secondParents, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+    }
+}
\ No newline at end of file
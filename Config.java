@@ -0,0 +1,52 @@
+package gitlet;
+
+import java.io.*;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/** Repository settings, stored as key=value lines in .gitlet/config and read once per process */
+class Config {
+    /** Name of the codec used to compress newly stored blobs */
+    static final String BLOB_CODEC = "blob.codec";
+    /** Whether checkouts of a branch or commit print how many files they wrote and deleted */
+    static final String CHECKOUT_REPORT = "checkout.report";
+    /** Size in bytes from which newly stored blobs are split into shared chunks */
+    static final String CHUNK_THRESHOLD = "chunk.threshold";
+    /** Seconds an unreachable object is kept before gc deletes it */
+    static final String GC_GRACE = "gc.grace";
+
+    /** Loaded on first use, guarded by the class lock since checkout workers may read settings concurrently */
+    private static Properties properties;
+
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    static void set(String key, String value) {
+        Properties current = load();
+        current.setProperty(key, value);
+        try(Writer out = new FileWriter(Repository.CONFIG)) {
+            current.store(out, null);
+        } catch (IOException excp) {
+            throw error("Could not write config: %s", excp.getMessage());
+        }
+    }
+
+    //Returns the settings, reading them on the first call. The field is only assigned once they are fully read, so
+    //a failed read is retried rather than leaving empty settings behind
+    private static synchronized Properties load() {
+        if(properties == null) {
+            Properties loaded = new Properties();
+            if(Repository.CONFIG.isFile()) {
+                try(Reader in = new FileReader(Repository.CONFIG)) {
+                    loaded.load(in);
+                } catch (IOException excp) {
+                    throw error("Could not read config: %s", excp.getMessage());
+                }
+            }
+            properties = loaded;
+        }
+        return properties;
+    }
+}
\ No newline at end of file
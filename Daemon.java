@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that serves commands over the Unix domain socket .gitlet/daemon.sock, so
+ *  commands skip JVM startup and share the caches and indexes loaded by earlier commands. While a daemon is
+ *  running, Main hands every command to it, so the daemon is the only process changing the repository.
+ *
+ *  Protocol: the client sends each argument followed by a NUL byte and then shuts down its side of the
+ *  connection; the daemon runs the command and replies with its output, then closes the connection. Any
+ *  client that can speak that works, for example: printf 'log\0-n\0005\0' | nc -NU .gitlet/daemon.sock
+ *
+ *  Several clients are served at once by a small pool of workers, each running its command against its own
+ *  Repository; RepositoryLock makes the commands themselves take turns. The command "daemon stop" stops the
+ *  daemon.
+ */
+class Daemon {
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /** How many clients are served at once. Commands still take turns holding the repository lock */
+    private static final int WORKERS = 4;
+
+    //Serves commands until a client asks the daemon to stop
+    static void serve() {
+        if(isRunning()) throw error("A daemon is already running.");
+        SOCKET.delete();
+
+        ServerSocketChannel server;
+        try {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } catch (IOException excp) {
+            throw error("Could not start daemon: %s", excp.getMessage());
+        }
+        try {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            System.out.println("Daemon listening on " + SOCKET.getPath());
+            ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+            while(true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException excp) {
+                    //Closed by the worker that received "daemon stop"
+                    break;
+                }
+                workers.execute(() -> {
+                    try(client) {
+                        if(!handle(client)) stop(server);
+                    } catch (IOException excp) {
+                        //A client that disconnects early only loses its own output
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (IOException | InterruptedException excp) {
+            throw error("Could not start daemon: %s", excp.getMessage());
+        } finally {
+            stop(server);
+            SOCKET.delete();
+        }
+    }
+
+    //Closes the server socket, which ends the accept loop in serve
+    private static void stop(ServerSocketChannel server) {
+        try {
+            server.close();
+        } catch (IOException excp) {
+            //The socket is closed when the process exits in any case
+        }
+    }
+
+    //Runs the command sent by one client, returning false if it asked the daemon to stop
+    private static boolean handle(SocketChannel client) throws IOException {
+        byte[] request = Channels.newInputStream(client).readAllBytes();
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for(int i = 0; i < request.length; i++) {
+            if(request[i] == 0) {
+                args.add(new String(request, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+
+        //Connections that send nothing only check whether the daemon is up
+        if(args.isEmpty()) return true;
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client), STREAM_BUFFER));
+        boolean running = true;
+        try {
+            if(args.get(0).equals("daemon")) {
+                if(args.size() == 2 && args.get(1).equals("stop")) {
+                    out.println("Daemon stopped.");
+                    running = false;
+                } else {
+                    out.println("A daemon is already running.");
+                }
+            } else {
+                Main.run(args.toArray(new String[0]), out);
+            }
+        } catch (GitletException excp) {
+            out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            //Keep serving other clients after a command fails unexpectedly
+            out.println("Internal error: " + excp);
+        }
+        out.flush();
+        return running;
+    }
+
+    //Sends a command to a running daemon and copies its output to OUT. Returns false, without running the
+    //command, if no daemon is listening
+    static boolean forward(String[] args, PrintStream out) {
+        if(!SOCKET.exists()) return false;
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            //The daemon exited without removing its socket
+            SOCKET.delete();
+            return false;
+        }
+
+        try(channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            for(String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(request.toByteArray());
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(out);
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Lost connection to daemon: %s", excp.getMessage());
+        }
+        return true;
+    }
+
+    private static boolean isRunning() {
+        if(!SOCKET.exists()) return false;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas in the style of rsync and xdelta: a version of a file is described as a sequence of
+ *  operations that either copy a range of bytes from a base version or insert new bytes. The base is indexed
+ *  in fixed-size blocks by a hash, and the target is scanned with a rolling hash of the same width, so any
+ *  block-aligned run the two versions share is found wherever it moved to; matches are then extended byte by
+ *  byte in both directions.
+ *
+ *  Encoding: the length of the target, then operations until the end: 0, offset, length to copy from the
+ *  base, or 1, length, bytes to insert. All numbers are unsigned varints.
+ */
+class Delta {
+    private static final int BLOCK = 16;
+    private static final int ROLL = 257;
+    /** How many base blocks with the same hash are compared before giving up on a position */
+    private static final int PROBES = 8;
+    private static final int COPY = 0, INSERT = 1;
+
+    //Returns a delta that turns BASE into TARGET
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        if(base.length < BLOCK || target.length < BLOCK) {
+            insert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+
+        //Index the start of every block of the base. Slots hold offsets plus one, so zero is empty
+        int blocks = base.length / BLOCK;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(blocks * 2 - 1, 1));
+        int[] table = new int[1 << bits];
+        for(int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            int slot = slot(hash(base, offset), bits);
+            while(table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = offset + 1;
+        }
+
+        int power = 1;
+        for(int k = 1; k < BLOCK; k++) {
+            power *= ROLL;
+        }
+
+        int pending = 0, i = 0, h = hash(target, 0);
+        while(i + BLOCK <= target.length) {
+            int bestOffset = -1, bestStart = i, bestLength = 0;
+            int slot = slot(h, bits);
+            for(int probe = 0; probe < PROBES && table[slot] != 0; probe++, slot = (slot + 1) & (table.length - 1)) {
+                int offset = table[slot] - 1;
+                if(!Arrays.equals(base, offset, offset + BLOCK, target, i, i + BLOCK)) continue;
+
+                int start = i, from = offset, end = i + BLOCK, to = offset + BLOCK;
+                while(end < target.length && to < base.length && target[end] == base[to]) {
+                    end++;
+                    to++;
+                }
+                while(start > pending && from > 0 && target[start - 1] == base[from - 1]) {
+                    start--;
+                    from--;
+                }
+                if(end - start > bestLength) {
+                    bestOffset = from;
+                    bestStart = start;
+                    bestLength = end - start;
+                }
+            }
+
+            if(bestOffset < 0) {
+                if(i + BLOCK < target.length) {
+                    h = (h - target[i] * power) * ROLL + target[i + BLOCK];
+                }
+                i++;
+                continue;
+            }
+            insert(out, target, pending, bestStart);
+            out.write(COPY);
+            writeVarint(out, bestOffset);
+            writeVarint(out, bestLength);
+            i = pending = bestStart + bestLength;
+            if(i + BLOCK <= target.length) h = hash(target, i);
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    //Rebuilds the target of a delta from its base
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = {0};
+        byte[] target = new byte[(int) readVarint(delta, position)];
+        int written = 0;
+        while(position[0] < delta.length) {
+            int op = delta[position[0]++];
+            if(op == COPY) {
+                int offset = (int) readVarint(delta, position), length = (int) readVarint(delta, position);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else if(op == INSERT) {
+                int length = (int) readVarint(delta, position);
+                System.arraycopy(delta, position[0], target, written, length);
+                position[0] += length;
+                written += length;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if(written != target.length) throw error("Corrupt delta.");
+        return target;
+    }
+
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if(from == to) return;
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(target, from, to - from);
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for(int k = 0; k < BLOCK; k++) {
+            h = h * ROLL + data[offset + k];
+        }
+        return h;
+    }
+    private static int slot(int hash, int bits) {
+        return (hash * 0x9e3779b1) >>> (32 - bits);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for(int shift = 0; ; shift += 7) {
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** Myers' O(ND) difference algorithm in its linear-space form: each step finds the middle snake of the
+ *  remaining edit graph by searching from both ends at once, then recurses on either side of it, so only two
+ *  vectors of O(N + M) ints are ever allocated. Sequences are arrays of interned line ids (see Lines), which
+ *  makes comparing two lines a single int comparison.
+ */
+class Diff {
+    private final int[] a;
+    private final int[] b;
+    /** For each element of A, the index of the element of B it is matched with, or -1 */
+    private final int[] matches;
+    /** Furthest reaching x on each diagonal, searching forwards from the start and backwards from the end */
+    private final int[] forward;
+    private final int[] backward;
+    private final int offset;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        matches = new int[a.length];
+        Arrays.fill(matches, -1);
+        offset = (a.length + b.length + 1) / 2 + 1;
+        forward = new int[2 * offset + 1];
+        backward = new int[2 * offset + 1];
+    }
+
+    //Returns, for each element of A, the index of the element of B it is matched with in a longest common
+    //subsequence of A and B, or -1 if it is not in that subsequence
+    static int[] match(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.matches;
+    }
+
+    //Matches A[aLo, aHi) against B[bLo, bHi)
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        //Common prefixes and suffixes match without searching
+        while(aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo++] = bLo++;
+        }
+        while(aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matches[--aHi] = --bHi;
+        }
+        if(aLo == aHi || bLo == bHi) return;
+
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        int x = snake[0], y = snake[1], u = snake[2], v = snake[3], d = snake[4];
+        if(d <= 1) {
+            //One side is the other with at most one element added, so matching greedily is optimal
+            for(int i = aLo, j = bLo; i < aHi && j < bHi; ) {
+                if(a[i] == b[j]) {
+                    matches[i++] = j++;
+                } else if(aHi - aLo > bHi - bLo) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return;
+        }
+        compare(aLo, aLo + x, bLo, bLo + y);
+        for(int i = x; i < u; i++) {
+            matches[aLo + i] = bLo + y + (i - x);
+        }
+        compare(aLo + u, aHi, bLo + v, bHi);
+    }
+
+    //Returns {x, y, u, v, d}: a snake from (x, y) to (u, v), relative to (aLo, bLo), lying on an optimal path of
+    //d edits through the edit graph of A[aLo, aHi) and B[bLo, bHi)
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for(int d = 0; d <= max; d++) {
+            for(int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k, x0 = x, y0 = y;
+                while(x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if(odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] {x0, y0, x, y, 2 * d - 1};
+                }
+            }
+            //The backward search runs on the reversed sequences, where diagonal c corresponds to delta - c
+            for(int c = -d; c <= d; c += 2) {
+                int x = (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1]))
+                        ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c, x0 = x, y0 = y;
+                while(x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if(!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] {n - x, m - y, n - x0, m - y0, 2 * d};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake found.");
+    }
+}
\ No newline at end of file
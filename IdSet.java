@@ -0,0 +1,58 @@
+package gitlet;
+
+/** A set of object ids that keeps only a 64-bit fingerprint of each id, the first 16 hex digits, in one open
+ *  addressed array: eight bytes an entry, where a set of Strings would take over a hundred. Two ids with the
+ *  same fingerprint are taken to be the same, so contains can report an id that was never added, with odds
+ *  of one in 2^64 per pair; callers must only use it where keeping too much is safe, as gc marking does.
+ */
+class IdSet {
+    private long[] slots = new long[1024];
+    private int size = 0;
+
+    //Adds an id, returning false if it was already in the set
+    boolean add(String id) {
+        if((size + 1) * 3 > slots.length * 2) grow();
+        if(!insert(slots, fingerprint(id))) return false;
+        size++;
+        return true;
+    }
+
+    boolean contains(String id) {
+        long key = fingerprint(id);
+        for(int i = slot(key, slots.length); slots[i] != 0; i = (i + 1) & (slots.length - 1)) {
+            if(slots[i] == key) return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static boolean insert(long[] table, long key) {
+        int i = slot(key, table.length);
+        while(table[i] != 0) {
+            if(table[i] == key) return false;
+            i = (i + 1) & (table.length - 1);
+        }
+        table[i] = key;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        for(long key : old) {
+            if(key != 0) insert(slots, key);
+        }
+    }
+
+    //Zero marks an empty slot, so the one id whose fingerprint is zero shares a fingerprint with another
+    private static long fingerprint(String id) {
+        long key = Long.parseUnsignedLong(id.substring(0, 16), 16);
+        return (key == 0) ? 1 : key;
+    }
+    private static int slot(long key, int length) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> 32) & (length - 1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** Write-ahead journal of ref updates, in .gitlet/journal. Every change to the head pointer, the current branch
+ *  or a branch is appended here as one record before any ref file is touched. The objects the new refs point at
+ *  are made durable first, by a single sync of the pending pack (see ObjectStore.flush); then the record is
+ *  appended and synced, and that sync is the commit point. A commit therefore costs two syncs, however many
+ *  objects it wrote. The ref files are then replaced without syncing, and the next command replays the journal,
+ *  so a ref file a crash lost or left behind is set to the last value the journal records for it.
+ *
+ *  The journal names no object contents, only refs and their values, so it stays small and is read as a stream.
+ *  It grows until it passes LIMIT bytes, when a checkpoint syncs the refs it names, the staging area and the
+ *  indexes that commits append to, and empties it. A record cut short by a crash fails its checksum and is cut
+ *  off: its sync never returned, so nothing was built on it.
+ *
+ *  Layout: records, each magic, body length, CRC32 of the body and the body: a count of updates, each the path
+ *  of a ref relative to .gitlet, whether it is set, and if so its new value.
+ */
+class Journal {
+    private static final int MAGIC = 0x474a4e4c; // "GJNL"
+    private static final int RECORD_HEADER = 16;
+    /** A checkpoint empties the journal once it is this long, which bounds the replay every command starts with */
+    private static final long LIMIT = 16 << 10;
+
+    /** The refs named by the whole records of the journal and the last value of each, null for a deleted ref */
+    static class Log {
+        final LinkedHashMap<String, String> refs = new LinkedHashMap<>();
+        /** Every value the records set, in order */
+        final List<String> values = new ArrayList<>();
+        /** The length of the whole records */
+        long length = 0;
+    }
+
+    //Moves the refs in REFS, each a path relative to .gitlet mapped to its new value or null to delete it, as one
+    //atomic update. Once the record is on disk the update survives a crash, whether or not the ref files do
+    static void update(Map<String, String> refs) {
+        ObjectStore.flush();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(body)) {
+            out.writeInt(refs.size());
+            for(Map.Entry<String, String> ref : refs.entrySet()) {
+                out.writeUTF(ref.getKey());
+                out.writeBoolean(ref.getValue() != null);
+                if(ref.getValue() != null) out.writeUTF(ref.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Could not write journal: %s", excp.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.size());
+        record.putInt(MAGIC).putInt(body.size()).putLong(crc.getValue()).put(body.toByteArray()).flip();
+
+        boolean created = !Repository.JOURNAL.exists();
+        long length;
+        try(FileChannel journal = FileChannel.open(Repository.JOURNAL.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while(record.hasRemaining()) {
+                journal.write(record);
+            }
+            journal.force(true);
+            length = journal.size();
+        } catch (IOException excp) {
+            throw error("Could not write journal: %s", excp.getMessage());
+        }
+        if(created) syncDirectory(Repository.GITLET_DIR);
+
+        for(Map.Entry<String, String> ref : refs.entrySet()) {
+            apply(ref.getKey(), ref.getValue());
+        }
+        if(length >= LIMIT) checkpoint();
+    }
+
+    //Returns whether the journal holds records, whose refs may not have reached their files
+    static boolean isPending() {
+        return Repository.JOURNAL.length() > 0;
+    }
+
+    //Sets every ref to the last value the journal records for it, returning the records read, or null if every
+    //ref file already matched. A record cut short by a crash is cut off, so later records are not appended after it
+    static Log replay() {
+        Log log = read();
+        if(log.length < Repository.JOURNAL.length()) {
+            try(FileChannel journal = FileChannel.open(Repository.JOURNAL.toPath(), StandardOpenOption.WRITE)) {
+                journal.truncate(log.length);
+            } catch (IOException excp) {
+                throw error("Could not repair journal: %s", excp.getMessage());
+            }
+        }
+
+        boolean changed = false;
+        for(Map.Entry<String, String> ref : log.refs.entrySet()) {
+            File file = join(Repository.GITLET_DIR, ref.getKey());
+            String current = file.isFile() ? readContentsAsString(file) : null;
+            if(!Objects.equals(current, ref.getValue())) {
+                apply(ref.getKey(), ref.getValue());
+                changed = true;
+            }
+        }
+        return changed ? log : null;
+    }
+
+    //Syncs every ref the journal names, with the directories holding them, and the files whose appends the
+    //journal stands in for, then empties the journal
+    private static void checkpoint() {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for(String ref : read().refs.keySet()) {
+            File file = join(Repository.GITLET_DIR, ref);
+            if(file.isFile()) syncFile(file);
+            dirs.add(file.getParentFile());
+        }
+        for(File index : new File[] {Repository.COMMIT_GRAPH, Repository.MESSAGE_INDEX}) {
+            if(index.isFile()) syncFile(index);
+        }
+        //The staging area each commit cleared must not come back with blobs the commit already took
+        dirs.add(Repository.ADDITIONS);
+        dirs.add(Repository.REMOVALS);
+        dirs.add(Repository.STAGING_AREA);
+        dirs.add(Repository.GITLET_DIR);
+        for(File dir : dirs) {
+            syncDirectory(dir);
+        }
+
+        try(FileChannel journal = FileChannel.open(Repository.JOURNAL.toPath(), StandardOpenOption.WRITE)) {
+            journal.truncate(0);
+            journal.force(true);
+        } catch (IOException excp) {
+            throw error("Could not clear journal: %s", excp.getMessage());
+        }
+    }
+
+    //Reads the whole records at the start of the journal, one at a time
+    private static Log read() {
+        Log log = new Log();
+        if(!Repository.JOURNAL.isFile()) return log;
+        long size = Repository.JOURNAL.length();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(Repository.JOURNAL), STREAM_BUFFER))) {
+            while(log.length + RECORD_HEADER <= size) {
+                if(in.readInt() != MAGIC) break;
+                int length = in.readInt();
+                long checksum = in.readLong();
+                if(length < 0 || length > size - log.length - RECORD_HEADER) break;
+                byte[] body = new byte[length];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if(crc.getValue() != checksum) break;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                for(int i = record.readInt(); i > 0; i--) {
+                    String ref = record.readUTF();
+                    String value = record.readBoolean() ? record.readUTF() : null;
+                    log.refs.remove(ref);
+                    log.refs.put(ref, value);
+                    if(value != null) log.values.add(value);
+                }
+                log.length += RECORD_HEADER + length;
+            }
+        } catch (IOException excp) {
+            throw error("Could not read journal: %s", excp.getMessage());
+        }
+        return log;
+    }
+
+    //Writes a ref file without syncing it, or deletes it if VALUE is null
+    private static void apply(String ref, String value) {
+        File file = join(Repository.GITLET_DIR, ref);
+        if(value == null) {
+            file.delete();
+        } else {
+            replaceContents(file, value);
+        }
+    }
+}
\ No newline at end of file
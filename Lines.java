@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The lines of a file, kept as the file's bytes plus the offset where each line starts, so no line is ever
+ *  copied into a String. Each line is also given an id by an Interner shared between the files being compared,
+ *  equal lines getting equal ids, so diffing compares ints instead of bytes. A line includes its terminating
+ *  newline; the last line of a file may not have one.
+ */
+class Lines {
+    final byte[] data;
+    /** Line i spans data[starts[i], starts[i + 1]) */
+    final int[] starts;
+    /** The interned id of each line */
+    final int[] ids;
+
+    Lines(byte[] data, Interner interner) {
+        this.data = data;
+        int count = 0;
+        for(int i = 0; i < data.length; i++) {
+            if(data[i] == '\n' || i == data.length - 1) count++;
+        }
+        starts = new int[count + 1];
+        ids = new int[count];
+        for(int i = 0, line = 0; i < data.length; i++) {
+            if(data[i] == '\n' || i == data.length - 1) {
+                starts[++line] = i + 1;
+                ids[line - 1] = interner.intern(data, starts[line - 1], i + 1);
+            }
+        }
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    //Returns whether the file looks binary, in which case it should not be merged or diffed line by line
+    boolean isBinary() {
+        for(int i = 0; i < Math.min(data.length, 8000); i++) {
+            if(data[i] == 0) return true;
+        }
+        return false;
+    }
+
+    //Returns whether line I ends with a newline
+    boolean isTerminated(int i) {
+        return data[starts[i + 1] - 1] == '\n';
+    }
+
+    //Writes lines [from, to) to OUT, adding a newline after the last one if it has none and NEWLINE is set
+    void write(int from, int to, OutputStream out, boolean newline) throws IOException {
+        out.write(data, starts[from], starts[to] - starts[from]);
+        if(newline && to > from && !isTerminated(to - 1)) out.write('\n');
+    }
+
+    /** Assigns ids to lines by content */
+    static class Interner {
+        private final HashMap<Line, Integer> ids = new HashMap<>();
+
+        int intern(byte[] data, int start, int end) {
+            Line line = new Line(data, start, end);
+            Integer id = ids.get(line);
+            if(id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            return id;
+        }
+    }
+
+    /** A line compared by its bytes, without copying them */
+    private static class Line {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Line(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for(int i = start; i < end; i++) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Line)) return false;
+            Line other = (Line) o;
+            return hash == other.hash && Arrays.equals(data, start, end, other.data, other.start, other.end);
+        }
+    }
+}
\ No newline at end of file
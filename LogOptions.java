@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/** The options of the log and global-log commands: how many commits to print, how far back to go, and how
+ *  to print each commit.
+ *
+ *  -n <count>       print at most COUNT commits
+ *  --since <date>   only print commits made at or after DATE (yyyy-MM-dd, or yyyy-MM-ddTHH:mm:ss)
+ *  --oneline        print each commit as its abbreviated id and message on one line
+ *  --format <fmt>   print each commit as FMT, where %H is the id, %h the abbreviated id, %s the message,
+ *                   %d the date, %n a newline and %% a percent sign
+ */
+class LogOptions {
+    /** The format dates are printed in. Unlike SimpleDateFormat, it is immutable and safe to share */
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy")
+            .withZone(ZoneId.systemDefault());
+
+    /** The most commits to print */
+    int limit = Integer.MAX_VALUE;
+    /** Commits made before this time, in milliseconds, are not printed */
+    long since = Long.MIN_VALUE;
+    /** How each commit is printed, or null for the full format */
+    String format;
+
+    //Parses the options in ARGS from index START on, returning null if they are not valid
+    static LogOptions parse(String[] args, int start) {
+        LogOptions options = new LogOptions();
+        try {
+            for(int i = start; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n" -> {
+                        options.limit = Integer.parseInt(args[++i]);
+                        if(options.limit < 0) return null;
+                    }
+                    case "--since" -> options.since = parseDate(args[++i]);
+                    case "--oneline" -> options.format = "%h %s";
+                    case "--format" -> options.format = args[++i];
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeParseException excp) {
+            return null;
+        }
+        return options;
+    }
+    private static long parseDate(String date) {
+        LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date) : LocalDate.parse(date).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    //Appends one commit to OUT in the chosen format
+    void print(String code, Commit commit, StringBuilder out) {
+        if(format == null) {
+            out.append("===\ncommit ").append(code).append('\n');
+            if(commit.getSecondParent() != null) {
+                out.append("Merge: ").append(commit.getParent(), 0, 7).append(' ')
+                        .append(commit.getSecondParent(), 0, 7).append('\n');
+            }
+            out.append("Date: ").append(DATE.format(commit.getDate().toInstant())).append(" -0800\n");
+            out.append(commit.getMessage()).append("\n\n");
+            return;
+        }
+
+        for(int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if(c != '%' || i + 1 == format.length()) {
+                out.append(c);
+                continue;
+            }
+            switch (format.charAt(++i)) {
+                case 'H' -> out.append(code);
+                case 'h' -> out.append(code, 0, 7);
+                case 's' -> out.append(commit.getMessage());
+                case 'd' -> out.append(DATE.format(commit.getDate().toInstant()));
+                case 'n' -> out.append('\n');
+                case '%' -> out.append('%');
+                default -> out.append('%').append(format.charAt(i));
+            }
+        }
+        out.append('\n');
+    }
+}
\ No newline at end of file
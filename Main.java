@@ -1,16 +1,43 @@
 package gitlet;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Abhiram Yakkali
  */
 
 public class Main {
     public static void main(String[] args) {
+        //Hand the command to a running daemon, unless it is the command to start one
+        boolean startsDaemon = args.length == 1 && args[0].equals("daemon");
+        try {
+            if(args.length > 0 && !startsDaemon && Daemon.forward(args, System.out)) return;
+            run(args, System.out);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    //Runs one command, printing its output to OUT, and throws a GitletException with the message to print if it
+    //fails. The repository is locked for the whole command, so its branch and pointer are read under the lock
+    static void run(String[] args, PrintStream out) {
         if(args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw new GitletException("Please enter a command.");
+        }
+        if(args[0].equals("daemon") || !Repository.GITLET_DIR.isDirectory()) {
+            run(args, new Repository(out));
+            return;
         }
-        Repository repo = new Repository();
+        RepositoryLock lock = RepositoryLock.acquire();
+        try {
+            run(args, new Repository(out));
+        } finally {
+            lock.close();
+        }
+    }
+    private static void run(String[] args, Repository repo) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init" -> {
@@ -33,13 +60,11 @@ public class Main {
                     if (args.length > 1) {
                         repo.commit(args[1]);
                     } else {
-                        System.out.println("Please enter a commit message.");
-                        System.exit(0);
+                        throw new GitletException("Please enter a commit message.");
                     }
                 } else {
                     //System.out.println(Utils.plainFilenamesIn(Repository.ADDITIONS));
-                    System.out.println("No changes added to the commit.");
-                    System.exit(0);
+                    throw new GitletException("No changes added to the commit.");
                 }
             }
             case "rm" -> {
@@ -52,15 +77,23 @@ public class Main {
             }
             case "log" -> {
                 checkGitletDirectory();
-                repo.log();
+                LogOptions options = LogOptions.parse(args, 1);
+                if (options == null) incorrectOperands();
+                repo.log(options);
             }
             case "global-log" -> {
                 checkGitletDirectory();
-                repo.logGlobal();
+                LogOptions options = LogOptions.parse(args, 1);
+                if (options == null) incorrectOperands();
+                repo.logGlobal(options);
             }
             case "find" -> {
                 checkGitletDirectory();
-                if (args.length > 1) {
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    repo.findContaining(args[2]);
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+                    repo.findMatching(args[2]);
+                } else if (args.length == 2) {
                     repo.find(args[1]);
                 } else {
                     incorrectOperands();
@@ -68,7 +101,13 @@ public class Main {
             }
             case "status" -> {
                 checkGitletDirectory();
-                repo.printStatus();
+                if (args.length > 1 && args[1].equals("--porcelain")) {
+                    repo.printStatus(true);
+                } else if (args.length > 1) {
+                    incorrectOperands();
+                } else {
+                    repo.printStatus();
+                }
             }
             case "checkout" -> {
                 checkGitletDirectory();
@@ -114,22 +153,78 @@ public class Main {
                     incorrectOperands();
                 }
             }
-            default -> {
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+            case "config" -> {
+                checkGitletDirectory();
+                switch (args.length) {
+                    case 2 -> repo.config(args[1], null);
+                    case 3 -> repo.config(args[1], args[2]);
+                    default -> incorrectOperands();
+                }
+            }
+            case "migrate" -> {
+                checkGitletDirectory();
+                repo.migrate();
+            }
+            case "repack" -> {
+                checkGitletDirectory();
+                repo.repack();
+            }
+            case "gc" -> {
+                checkGitletDirectory();
+                boolean dryRun = false, now = false;
+                for (int i = 1; i < args.length; i++) {
+                    switch (args[i]) {
+                        case "--dry-run" -> dryRun = true;
+                        case "--now" -> now = true;
+                        default -> incorrectOperands();
+                    }
+                }
+                repo.gc(dryRun, now);
+            }
+            case "stats" -> {
+                checkGitletDirectory();
+                repo.stats();
+            }
+            case "diff" -> {
+                checkGitletDirectory();
+                List<String> commits = new ArrayList<>(), paths = new ArrayList<>();
+                boolean staged = false, stat = false;
+                for (int i = 1; i < args.length; i++) {
+                    switch (args[i]) {
+                        case "--staged", "--cached" -> staged = true;
+                        case "--stat" -> stat = true;
+                        case "--" -> {
+                            for (i++; i < args.length; i++) {
+                                paths.add(WorkingTree.normalize(args[i]));
+                            }
+                        }
+                        default -> commits.add(args[i]);
+                    }
+                }
+                if (commits.size() > 2 || (staged && commits.size() == 2)) incorrectOperands();
+                repo.diff(commits, staged, paths, stat);
+            }
+            case "daemon" -> {
+                checkGitletDirectory();
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    throw new GitletException("No daemon is running.");
+                } else {
+                    incorrectOperands();
+                }
             }
+            default -> throw new GitletException("No command with that name exists.");
         }
     }
 
     private static void incorrectOperands() {
-        System.out.println("Incorrect operands.");
-        System.exit(0);
+        throw new GitletException("Incorrect operands.");
     }
 
     private static void checkGitletDirectory() {
         if(!Repository.GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException("Not in an initialized Gitlet directory.");
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/** Three-way merge of one file. Both sides are diffed against the split point; wherever a split point line
+ *  survives unchanged on both sides the three versions are aligned, and each region between two such lines
+ *  is resolved on its own: if only one side changed it, that side wins, and if both changed it the same way
+ *  the change is taken once. Only regions both sides changed differently are written as conflicts.
+ *  Binary files are never merged line by line; if both sides changed one, the whole file conflicts.
+ */
+class Merge3 {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes();
+    private static final byte[] SEPARATOR = "=======\n".getBytes();
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes();
+
+    //Writes the merge of OURS and THEIRS, two edits of BASE, to OUT. Returns whether any region conflicted
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        Lines.Interner interner = new Lines.Interner();
+        Lines b = new Lines(base, interner), o = new Lines(ours, interner), t = new Lines(theirs, interner);
+
+        if(b.isBinary() || o.isBinary() || t.isBinary()) {
+            conflict(o, 0, o.size(), t, 0, t.size(), out);
+            return true;
+        }
+
+        int[] toOurs = Diff.match(b.ids, o.ids), toTheirs = Diff.match(b.ids, t.ids);
+        boolean conflicted = false;
+        int i = 0, j = 0, k = 0;
+        while(true) {
+            //Copy the lines all three versions share
+            int start = j;
+            while(i < b.size() && toOurs[i] == j && toTheirs[i] == k) {
+                i++;
+                j++;
+                k++;
+            }
+            o.write(start, j, out, false);
+
+            //Find where the versions line up again: the next split point line kept by both sides
+            int i2 = i;
+            while(i2 < b.size() && (toOurs[i2] < 0 || toTheirs[i2] < 0)) {
+                i2++;
+            }
+            int j2 = (i2 < b.size()) ? toOurs[i2] : o.size(), k2 = (i2 < b.size()) ? toTheirs[i2] : t.size();
+            if(i == i2 && j == j2 && k == k2) break;
+
+            if(same(b, i, i2, o, j, j2)) {
+                t.write(k, k2, out, false);
+            } else if(same(b, i, i2, t, k, k2) || same(o, j, j2, t, k, k2)) {
+                o.write(j, j2, out, false);
+            } else {
+                conflict(o, j, j2, t, k, k2, out);
+                conflicted = true;
+            }
+            i = i2;
+            j = j2;
+            k = k2;
+        }
+        return conflicted;
+    }
+
+    private static boolean same(Lines x, int xFrom, int xTo, Lines y, int yFrom, int yTo) {
+        return Arrays.equals(x.ids, xFrom, xTo, y.ids, yFrom, yTo);
+    }
+
+    private static void conflict(Lines o, int j, int j2, Lines t, int k, int k2, OutputStream out) throws IOException {
+        out.write(OURS_MARKER);
+        o.write(j, j2, out, true);
+        out.write(SEPARATOR);
+        t.write(k, k2, out, true);
+        out.write(THEIRS_MARKER);
+    }
+}
\ No newline at end of file
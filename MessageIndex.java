@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The message index in .gitlet/message-index: the id and message of every commit, appended as each
+ *  commit is written, so find reads one file instead of every commit object. Exact searches are a hash
+ *  lookup on the message; substring and regex searches test each distinct message once.
+ *
+ *  Layout: magic, version, then one record per commit: 20-byte id, 4-byte length, UTF-8 message. An index
+ *  that is missing, such as in a repository written by an older version, is rebuilt from the commits the
+ *  first time it is needed.
+ */
+class MessageIndex {
+    private static final int MAGIC = 0x474d5347; // "GMSG"
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Commit ids by message, loaded lazily */
+    private static HashMap<String, List<String>> commits;
+
+    //Records the message of a newly written commit
+    static void add(String code, String message) {
+        if(!Repository.MESSAGE_INDEX.isFile()) {
+            //Building the index reads every commit in the store, including this one
+            load();
+            return;
+        }
+        if(commits != null) commits.computeIfAbsent(message, k -> new ArrayList<>()).add(code);
+        append(Collections.singletonMap(code, message));
+    }
+
+    //Records the message of a commit whose entry may have been lost in a crash, unless the index already has it
+    static void restore(String code, String message) {
+        //Loading also rebuilds an index whose last record was cut short, so the entry is never appended after one
+        load();
+        if(!commits.getOrDefault(message, Collections.emptyList()).contains(code)) add(code, message);
+    }
+
+    //Returns the ids of the commits with exactly MESSAGE, in sorted order
+    static List<String> find(String message) {
+        load();
+        TreeSet<String> matches = new TreeSet<>(commits.getOrDefault(message, Collections.emptyList()));
+        return new ArrayList<>(matches);
+    }
+
+    //Returns the ids of the commits whose message contains TEXT, in sorted order
+    static List<String> findContaining(String text) {
+        load();
+        TreeSet<String> matches = new TreeSet<>();
+        for(Map.Entry<String, List<String>> entry : commits.entrySet()) {
+            if(entry.getKey().contains(text)) matches.addAll(entry.getValue());
+        }
+        return new ArrayList<>(matches);
+    }
+
+    //Returns the ids of the commits with a message in which PATTERN finds a match, in sorted order
+    static List<String> findMatching(Pattern pattern) {
+        load();
+        TreeSet<String> matches = new TreeSet<>();
+        for(Map.Entry<String, List<String>> entry : commits.entrySet()) {
+            if(pattern.matcher(entry.getKey()).find()) matches.addAll(entry.getValue());
+        }
+        return new ArrayList<>(matches);
+    }
+
+    //Discards the index, for when commits are removed from the store. It is rebuilt when next needed
+    static void clear() {
+        commits = null;
+        Repository.MESSAGE_INDEX.delete();
+    }
+
+    private static void load() {
+        if(commits != null) return;
+        commits = new HashMap<>();
+        if(!Repository.MESSAGE_INDEX.isFile()) {
+            rebuild();
+            return;
+        }
+
+        HashSet<String> seen = new HashSet<>();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(Repository.MESSAGE_INDEX), STREAM_BUFFER))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                rebuild();
+                return;
+            }
+            byte[] id = new byte[ID_BYTES];
+            while(true) {
+                try {
+                    in.readFully(id);
+                } catch (EOFException excp) {
+                    break;
+                }
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                String code = ObjectStore.toHex(id);
+                //The same commit can be written twice, for example by a reset followed by an identical commit
+                if(seen.add(code)) {
+                    commits.computeIfAbsent(new String(text, StandardCharsets.UTF_8), k -> new ArrayList<>()).add(code);
+                }
+            }
+        } catch (EOFException excp) {
+            //A record was left half-written by an interrupted append, so its commit may be missing
+            rebuild();
+        } catch (IOException excp) {
+            throw error("Could not read message index: %s", excp.getMessage());
+        }
+    }
+
+    //Writes a new index holding every commit in the store
+    private static void rebuild() {
+        commits.clear();
+        Repository.MESSAGE_INDEX.delete();
+        TreeMap<String, String> messages = new TreeMap<>();
+        for(String code : ObjectStore.list(ObjectStore.Kind.COMMIT)) {
+            String message = Commit.read(code).getMessage();
+            messages.put(code, message);
+            commits.computeIfAbsent(message, k -> new ArrayList<>()).add(code);
+        }
+        append(messages);
+    }
+
+    private static void append(Map<String, String> messages) {
+        boolean isNew = !Repository.MESSAGE_INDEX.isFile();
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(Repository.MESSAGE_INDEX, true)))) {
+            if(isNew) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for(Map.Entry<String, String> entry : messages.entrySet()) {
+                byte[] text = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                out.write(ObjectStore.toBytes(entry.getKey()));
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write message index: %s", excp.getMessage());
+        }
+    }
+}
\ No newline at end of file
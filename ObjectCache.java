@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/** A least-recently-used cache bounded by the total weight of its values rather than their count, so a
+ *  few large entries cannot crowd the heap. Values are weighed when they are added, and again through reweigh
+ *  if they grow. Hits and misses are counted, and the methods are thread-safe so one cache can serve several
+ *  commands at once. Values are loaded outside the lock, so misses on different keys load in parallel, while
+ *  threads missing on the same key wait for a single load.
+ */
+class ObjectCache<K, V> {
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<K, Long> weights = new HashMap<>();
+    /** Loads in progress, by key */
+    private final HashMap<K, CompletableFuture<V>> loading = new HashMap<>();
+    private final ToLongFunction<V> weigher;
+    private final long capacity;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    //Creates a cache holding values of at most CAPACITY total weight, as measured by WEIGHER
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    //Returns the cached value for KEY, computing and caching it with LOADER on a miss. Null results are
+    //returned but not cached
+    V get(K key, Function<K, V> loader) {
+        CompletableFuture<V> load;
+        synchronized(this) {
+            V value = entries.get(key);
+            if(value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            load = loading.get(key);
+            if(load == null) loading.put(key, new CompletableFuture<>());
+        }
+        if(load != null) {
+            try {
+                return load.join();
+            } catch (CompletionException excp) {
+                if(excp.getCause() instanceof RuntimeException) throw (RuntimeException) excp.getCause();
+                throw excp;
+            }
+        }
+
+        V value = null;
+        Throwable failure = null;
+        try {
+            value = loader.apply(key);
+            return value;
+        } catch (RuntimeException | Error excp) {
+            failure = excp;
+            throw excp;
+        } finally {
+            synchronized(this) {
+                load = loading.remove(key);
+                if(value != null) put(key, value);
+            }
+            if(failure == null) {
+                load.complete(value);
+            } else {
+                load.completeExceptionally(failure);
+            }
+        }
+    }
+
+    synchronized void put(K key, V value) {
+        long size = weigher.applyAsLong(value);
+        remove(key);
+        if(size > capacity) return;
+
+        entries.put(key, value);
+        weights.put(key, size);
+        weight += size;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while(weight > capacity) {
+            K evicted = eldest.next().getKey();
+            eldest.remove();
+            weight -= weights.remove(evicted);
+        }
+    }
+
+    //Weighs the value cached for KEY again, for values that grow after they are added
+    synchronized void reweigh(K key) {
+        V value = entries.get(key);
+        if(value != null) put(key, value);
+    }
+
+    synchronized void remove(K key) {
+        Long size = weights.remove(key);
+        if(size == null) return;
+        entries.remove(key);
+        weight -= size;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        weights.clear();
+        weight = 0;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+    synchronized long misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %d bytes, %d hits, %d misses", entries.size(), weight, hits, misses);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,1048 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** Storage for gitlet objects. New objects are appended to the pending pack, .gitlet/packs/pending, so that one
+ *  sync in flush makes every object written since the last flush durable, however many there are. Once it reaches
+ *  SEAL_BYTES bytes or SEAL_COUNT objects, the pending pack is sealed: given a sorted index like any other pack.
+ *  The repack command folds every pack into one. Reading a packed object is a binary search over a memory-mapped index
+ *  instead of a file lookup; the pending pack has no index file, and its entries are scanned into memory when it
+ *  is first read. Older versions wrote each object loose, one file per object, fanned out under the directory of
+ *  its kind by the first two characters of its id or directly in that directory, and those are still read.
+ *
+ *  Pending pack layout: one entry per object, each a 1-byte kind, 20-byte id and 8-byte length, then the stored
+ *  form. An object streamed in has a zero kind until its id is known, so one cut short by a crash ends the scan.
+ *
+ *  Pack index layout: magic, version, object count, then one fixed-size record per object sorted by id:
+ *  20-byte id, 1-byte kind, 8-byte offset into the pack, 8-byte length, and from version 2 the 4-byte record
+ *  number of the delta base, or -1. A blob with a base is stored as a Delta from the contents of the base,
+ *  itself written as a blob with the configured codec; bases may be deltas too, up to MAX_DEPTH deep. Version 1
+ *  indexes are still read.
+ */
+class ObjectStore {
+    /** The kinds of object held by the store, with the directory their loose objects live in */
+    enum Kind {
+        COMMIT('c', Repository.COMMITS),
+        BLOB('b', Repository.BLOBS),
+        TREE('t', Repository.TREES),
+        CHUNK('k', Repository.CHUNKS);
+
+        final byte tag;
+        final File dir;
+
+        Kind(char tag, File dir) {
+            this.tag = (byte) tag;
+            this.dir = dir;
+        }
+
+        static Kind of(byte tag) {
+            Kind kind = find(tag);
+            if(kind == null) throw error("Unknown object kind in pack index.");
+            return kind;
+        }
+        //Returns the kind with a tag, or null if there is none
+        static Kind find(byte tag) {
+            for(Kind kind : values()) {
+                if(kind.tag == tag) return kind;
+            }
+            return null;
+        }
+    }
+
+    private static final int IDX_MAGIC = 0x47494458; // "GIDX"
+    private static final int IDX_VERSION = 2;
+    private static final int IDX_HEADER = 12;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_V1 = ID_BYTES + 1 + 8 + 8;
+    private static final int RECORD = RECORD_V1 + 4;
+    /** The longest chain of deltas repack builds before storing a blob whole */
+    private static final int MAX_DEPTH = 10;
+    private static final int PENDING_HEADER = 1 + ID_BYTES + 8;
+    /** The pending pack is sealed once it holds this many bytes or objects, which bounds the scan that opens it */
+    private static final long SEAL_BYTES = 32 << 20;
+    private static final int SEAL_COUNT = 4096;
+
+    /** Packs currently on disk, loaded lazily on first access */
+    private static List<Pack> packs;
+    /** The pending pack, scanned lazily on first access */
+    private static Pending pending;
+    /** Uncompressed contents of recently rebuilt delta blobs and their bases, so walking the versions of a file
+     *  does not apply the same chain of deltas over and over */
+    static final ObjectCache<String, byte[]> deltaBases = new ObjectCache<>(64 << 20, bytes -> bytes.length);
+
+    //Appends an object to the pending pack, unless the store already has it. Nothing is synced until flush
+    static void write(Kind kind, String id, byte[] contents) {
+        if(exists(kind, id)) return;
+        try {
+            getPending().append(kind, id, contents);
+        } catch (IOException excp) {
+            throw error("Could not write object %s: %s", id, excp.getMessage());
+        }
+    }
+    //Appends the contents of a file outside the store to the pending pack, unless the store already has ID
+    static void write(Kind kind, String id, File source) {
+        if(exists(kind, id)) return;
+        NewObject object = newObject(kind);
+        try(OutputStream out = new BufferedOutputStream(object, STREAM_BUFFER)) {
+            Files.copy(source.toPath(), out);
+        } catch (IOException excp) {
+            object.discard();
+            throw error("Could not write object %s: %s", id, excp.getMessage());
+        }
+        object.keep(id);
+    }
+    //Starts an object whose contents are streamed into the pending pack before its id is known
+    static NewObject newObject(Kind kind) {
+        return new NewObject(kind);
+    }
+
+    //Makes every object written so far durable with a single sync of the pending pack, then seals the pending pack
+    //if it is full. Called before a ref is moved, so a ref never points at an object a crash could lose
+    static void flush() {
+        Pending current = getPending();
+        try {
+            current.sync();
+        } catch (IOException excp) {
+            throw error("Could not sync objects: %s", excp.getMessage());
+        }
+        if(current.end >= SEAL_BYTES || current.entries.size() >= SEAL_COUNT) seal(current);
+    }
+    //Syncs those of IDS that older versions left as loose files, which may never have been synced. Objects in the
+    //pending pack are made durable by flush, and sealed packs were synced when they were written
+    static void sync(Kind kind, Collection<String> ids) {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for(String id : ids) {
+            File loose = findLoose(kind, id);
+            if(loose == null) continue;
+            syncFile(loose);
+            dirs.add(loose.getParentFile());
+        }
+        for(File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    //Gives the pending pack an index, making it an ordinary pack. The pack is the same file under a new name,
+    //linked where the file system allows it so that nothing is copied, and the pending name is only removed once
+    //the index and the new name are on disk
+    private static void seal(Pending sealed) {
+        String name = "pack-" + sha1(String.join("", sealed.entries.keySet()));
+        File packFile = join(Repository.PACKS, name + ".pack"), idxFile = join(Repository.PACKS, name + ".idx");
+        if(!idxFile.isFile()) {
+            ByteBuffer index = ByteBuffer.allocate(IDX_HEADER + RECORD * sealed.entries.size());
+            index.putInt(IDX_MAGIC).putInt(IDX_VERSION).putInt(sealed.entries.size());
+            for(Map.Entry<String, Pending.Entry> entry : sealed.entries.entrySet()) {
+                Pending.Entry object = entry.getValue();
+                index.put(toBytes(entry.getKey())).put(object.kind.tag).putLong(object.offset)
+                        .putLong(object.length).putInt(-1);
+            }
+            packFile.delete();
+            try {
+                Files.createLink(packFile.toPath(), Repository.PENDING.toPath());
+            } catch (IOException | UnsupportedOperationException excp) {
+                copyContents(Repository.PENDING, 0, sealed.end, packFile);
+                syncFile(packFile);
+            }
+            //Syncing the directory after renaming the index also makes the link durable
+            writeContentsAtomically(idxFile, (Object) index.array());
+        }
+        closePacks();
+        Repository.PENDING.delete();
+    }
+
+    /** Where the bytes of a stored object live: a loose file or a region of a pack */
+    static class Location {
+        final File file;
+        final long position;
+        final long length;
+
+        Location(File file, long position, long length) {
+            this.file = file;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    //Finds the bytes of an object, or returns null if it is not in the store or is packed as a delta, in which
+    //case its contents only exist once rebuilt by read or open
+    static Location locate(Kind kind, String id) {
+        File loose = findLoose(kind, id);
+        if(loose != null) return new Location(loose, 0, loose.length());
+        Pending.Entry entry = getPending().get(kind, id);
+        if(entry != null) return new Location(Repository.PENDING, entry.offset, entry.length);
+
+        for(Pack pack : getPacks()) {
+            int i = pack.find(id);
+            if(i >= 0 && pack.kind(i) == kind) {
+                if(pack.base(i) >= 0) return null;
+                return new Location(join(Repository.PACKS, pack.name + ".pack"), pack.offset(i), pack.length(i));
+            }
+        }
+        return null;
+    }
+
+    //Copies the contents of an object to a file without buffering them on the heap, unless it is packed as a
+    //delta. Returns false if the object is not in the store
+    static boolean copyTo(Kind kind, String id, File dest) {
+        Location location = locate(kind, id);
+        if(location == null) {
+            byte[] contents = read(kind, id);
+            if(contents == null) return false;
+            writeContents(dest, contents);
+            return true;
+        }
+        copyContents(location.file, location.position, location.length, dest);
+        return true;
+    }
+
+    //Opens a stream over the contents of an object, or returns null if it is not in the store
+    static InputStream open(Kind kind, String id) {
+        Location location = locate(kind, id);
+        if(location == null) {
+            byte[] contents = read(kind, id);
+            return (contents == null) ? null : new ByteArrayInputStream(contents);
+        }
+        try {
+            FileChannel channel = FileChannel.open(location.file.toPath());
+            channel.position(location.position);
+            return new RegionInputStream(Channels.newInputStream(channel), location.length);
+        } catch (IOException excp) {
+            throw error("Could not read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    //Returns the contents of an object, or null if it is not in the store
+    static byte[] read(Kind kind, String id) {
+        File loose = findLoose(kind, id);
+        if(loose != null) return readContents(loose);
+        Pending.Entry entry = getPending().get(kind, id);
+        if(entry != null) return getPending().read(entry);
+
+        for(Pack pack : getPacks()) {
+            int i = pack.find(id);
+            if(i >= 0 && pack.kind(i) == kind) {
+                return (pack.base(i) < 0) ? pack.read(i) : BlobCodec.wrapUncompressed(contentsOf(pack, i));
+            }
+        }
+        return null;
+    }
+
+    //Returns the uncompressed contents of a packed blob, applying its chain of deltas
+    private static byte[] contentsOf(Pack pack, int record) {
+        return deltaBases.get(pack.id(record), id -> {
+            int base = pack.base(record);
+            if(base < 0) return BlobCodec.unwrap(pack.read(record));
+            return Delta.apply(contentsOf(pack, base), BlobCodec.unwrap(pack.read(record)));
+        });
+    }
+
+    static boolean exists(Kind kind, String id) {
+        if(findLoose(kind, id) != null || getPending().get(kind, id) != null) return true;
+
+        for(Pack pack : getPacks()) {
+            int i = pack.find(id);
+            if(i >= 0 && pack.kind(i) == kind) return true;
+        }
+        return false;
+    }
+
+    //Returns the ids of every object of a kind, loose or packed, in sorted order
+    static List<String> list(Kind kind) {
+        List<String> ids = new ArrayList<>();
+        iterate(kind).forEachRemaining(ids::add);
+        return ids;
+    }
+
+    //Iterates over the ids of every object of a kind in sorted order. The store is read one fan-out prefix at a
+    //time, so a caller that stops early only lists the loose directories and pack ranges it reached
+    static Iterator<String> iterate(Kind kind) {
+        TreeSet<String> legacy = new TreeSet<>();
+        File[] files = kind.dir.listFiles(File::isFile);
+        if(files != null) {
+            for(File file : files) {
+                legacy.add(file.getName());
+            }
+        }
+
+        return new Iterator<String>() {
+            private int prefix = 0;
+            private Iterator<String> batch = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while(!batch.hasNext() && prefix < 256) {
+                    batch = idsWithPrefix(kind, String.format("%02x", prefix++), legacy).iterator();
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                return batch.next();
+            }
+        };
+    }
+    //Returns the ids of the objects of a kind that start with a two-character prefix, given the legacy loose ids
+    private static TreeSet<String> idsWithPrefix(Kind kind, String prefix, TreeSet<String> legacy) {
+        TreeSet<String> ids = new TreeSet<>(legacy.subSet(prefix, prefix + Character.MAX_VALUE));
+        String[] names = join(kind.dir, prefix).list();
+        if(names != null) {
+            for(String name : names) {
+                ids.add(prefix + name);
+            }
+        }
+        getPending().addIds(kind, prefix, ids);
+        for(Pack pack : getPacks()) {
+            for(int i = pack.lowerBound(prefix); i < pack.size(); i++) {
+                String id = pack.id(i);
+                if(!id.startsWith(prefix)) break;
+                if(pack.kind(i) == kind) ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    //Removes objects from the store, rewriting the packs if any of them are packed
+    static void remove(Kind kind, Collection<String> ids) {
+        remove(Collections.singletonMap(kind, ids));
+    }
+    //Removes objects of several kinds, rewriting the packs at most once
+    static void remove(Map<Kind, ? extends Collection<String>> objects) {
+        HashSet<String> packed = new HashSet<>();
+        for(Map.Entry<Kind, ? extends Collection<String>> entry : objects.entrySet()) {
+            for(String id : entry.getValue()) {
+                File loose = findLoose(entry.getKey(), id);
+                if((loose == null || !deleteLoose(loose)) && exists(entry.getKey(), id)) packed.add(id);
+            }
+        }
+        if(!packed.isEmpty()) repack(packed, Collections.emptyMap());
+    }
+
+    //Returns the bytes an object takes in the store, or -1 if it is not in the store
+    static long storedLength(Kind kind, String id) {
+        File loose = findLoose(kind, id);
+        if(loose != null) return loose.length();
+        Pending.Entry entry = getPending().get(kind, id);
+        if(entry != null) return entry.length;
+
+        for(Pack pack : getPacks()) {
+            int i = pack.find(id);
+            if(i >= 0 && pack.kind(i) == kind) return pack.length(i);
+        }
+        return -1;
+    }
+
+    //Returns when an object was written: the time of its loose file, or of the pack holding it
+    static long lastModified(Kind kind, String id) {
+        File loose = findLoose(kind, id);
+        if(loose != null) return loose.lastModified();
+        if(getPending().get(kind, id) != null) return Repository.PENDING.lastModified();
+
+        for(Pack pack : getPacks()) {
+            int i = pack.find(id);
+            if(i >= 0 && pack.kind(i) == kind) return join(Repository.PACKS, pack.name + ".pack").lastModified();
+        }
+        return 0;
+    }
+
+    //Returns the ids of up to LIMIT objects of a kind whose ids start with PREFIX, in sorted order. Only the
+    //fan-out directory for the prefix is listed, and each pack index is binary searched for the prefix
+    static List<String> resolve(Kind kind, String prefix, int limit) {
+        TreeSet<String> matches = new TreeSet<>();
+        if(prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return new ArrayList<>(matches);
+        }
+
+        if(prefix.length() >= 2) {
+            String[] names = join(kind.dir, prefix.substring(0, 2)).list();
+            if(names != null) {
+                for(String name : names) {
+                    if(name.startsWith(prefix.substring(2))) matches.add(prefix.substring(0, 2) + name);
+                }
+            }
+        } else {
+            for(char c : "0123456789abcdef".toCharArray()) {
+                String[] names = join(kind.dir, prefix + c).list();
+                if(names == null) continue;
+                for(String name : names) {
+                    matches.add(prefix + c + name);
+                }
+            }
+        }
+        //Loose objects written by older versions sit directly in the kind's directory
+        File[] legacy = kind.dir.listFiles(file -> file.isFile() && file.getName().startsWith(prefix));
+        if(legacy != null) {
+            for(File file : legacy) {
+                matches.add(file.getName());
+            }
+        }
+
+        getPending().addIds(kind, prefix, matches);
+        for(Pack pack : getPacks()) {
+            for(int i = pack.lowerBound(prefix); i < pack.size() && matches.size() <= limit; i++) {
+                String id = pack.id(i);
+                if(!id.startsWith(prefix)) break;
+                if(pack.kind(i) == kind) matches.add(id);
+            }
+        }
+
+        List<String> result = new ArrayList<>(matches);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    //Returns the file a loose object is written to
+    private static File looseFile(Kind kind, String id) {
+        return join(kind.dir, id.substring(0, 2), id.substring(2));
+    }
+    //Returns the loose file holding an object, in either layout, or null if it is not stored loose
+    private static File findLoose(Kind kind, String id) {
+        File loose = looseFile(kind, id);
+        if(loose.isFile()) return loose;
+        loose = join(kind.dir, id);
+        return loose.isFile() ? loose : null;
+    }
+    //Deletes a loose object file, and its fan-out directory if that is left empty
+    private static boolean deleteLoose(File file) {
+        if(!file.delete()) return false;
+        File dir = file.getParentFile();
+        if(dir.getName().length() == 2) dir.delete();
+        return true;
+    }
+    //Returns every loose object of a kind mapped to the file holding it
+    private static Map<String, File> looseObjects(Kind kind) {
+        TreeMap<String, File> objects = new TreeMap<>();
+        File[] children = kind.dir.listFiles();
+        if(children == null) return objects;
+        for(File child : children) {
+            if(child.isFile()) {
+                objects.put(child.getName(), child);
+            } else if(child.getName().length() == 2) {
+                File[] files = child.listFiles(File::isFile);
+                if(files == null) continue;
+                for(File file : files) {
+                    objects.put(child.getName() + file.getName(), file);
+                }
+            }
+        }
+        return objects;
+    }
+
+    //Folds every loose object and every existing pack, the pending pack too, into a single new pack, then removes
+    //the old files once the new pack is on disk
+    static void repack() {
+        repack(Collections.emptySet(), Collections.emptyMap());
+    }
+    //Repacks as above, storing each blob in BASES as a delta from the blob it maps to where that saves space
+    static void repack(Map<String, String> bases) {
+        repack(Collections.emptySet(), bases);
+    }
+    //Repacks as above, leaving out the objects in EXCLUDED. Blobs already stored as deltas keep their bases
+    //unless BASES gives them another one or their base is excluded
+    private static void repack(Set<String> excluded, Map<String, String> bases) {
+        TreeMap<String, Kind> objects = new TreeMap<>();
+        HashMap<String, String> existing = new HashMap<>();
+        boolean dropped = false;
+        for(Pack pack : getPacks()) {
+            for(int i = 0; i < pack.size(); i++) {
+                String id = pack.id(i);
+                if(excluded.contains(id)) {
+                    dropped = true;
+                } else {
+                    objects.put(id, pack.kind(i));
+                    int base = pack.base(i);
+                    if(base >= 0 && !excluded.contains(pack.id(base))) existing.put(id, pack.id(base));
+                }
+            }
+        }
+        Pending current = getPending();
+        for(Map.Entry<String, Pending.Entry> entry : current.entries.entrySet()) {
+            if(excluded.contains(entry.getKey())) {
+                dropped = true;
+            } else {
+                objects.put(entry.getKey(), entry.getValue().kind);
+            }
+        }
+        List<File> looseFiles = new ArrayList<>();
+        for(Kind kind : Kind.values()) {
+            for(Map.Entry<String, File> loose : looseObjects(kind).entrySet()) {
+                if(!excluded.contains(loose.getKey())) objects.put(loose.getKey(), kind);
+                looseFiles.add(loose.getValue());
+            }
+        }
+        HashMap<String, String> deltas = new HashMap<>(existing);
+        for(Map.Entry<String, String> entry : bases.entrySet()) {
+            //Chunked blobs already share their unchanged parts, and rebuilding them from deltas would undo that
+            if(objects.get(entry.getKey()) == Kind.BLOB && objects.get(entry.getValue()) == Kind.BLOB
+                    && !BlobCodec.isChunked(entry.getKey()) && !BlobCodec.isChunked(entry.getValue())) {
+                deltas.put(entry.getKey(), entry.getValue());
+            }
+        }
+        boolean rebased = !deltas.equals(existing);
+        if(!dropped && !rebased && (objects.isEmpty()
+                || (looseFiles.isEmpty() && current.entries.isEmpty() && getPacks().size() <= 1))) return;
+        if(objects.isEmpty()) {
+            List<Pack> oldPacks = new ArrayList<>(getPacks());
+            closePacks();
+            for(Pack pack : oldPacks) {
+                join(Repository.PACKS, pack.name + ".pack").delete();
+                join(Repository.PACKS, pack.name + ".idx").delete();
+            }
+            Repository.PENDING.delete();
+            for(File file : looseFiles) {
+                deleteLoose(file);
+            }
+            return;
+        }
+        limitDepth(deltas);
+
+        HashMap<String, Integer> records = new HashMap<>();
+        for(String id : objects.keySet()) {
+            records.put(id, records.size());
+        }
+
+        Repository.PACKS.mkdirs();
+        String name = "pack-" + sha1(String.join("", objects.keySet()));
+        File packFile = join(Repository.PACKS, name + ".pack"), idxFile = join(Repository.PACKS, name + ".idx");
+        File packTemp = join(Repository.PACKS, name + ".pack.tmp");
+
+        ByteBuffer index = ByteBuffer.allocate(IDX_HEADER + RECORD * objects.size());
+        index.putInt(IDX_MAGIC).putInt(IDX_VERSION).putInt(objects.size());
+        try(FileChannel out = FileChannel.open(packTemp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for(Map.Entry<String, Kind> entry : objects.entrySet()) {
+                String id = entry.getKey();
+                long offset = out.position();
+                int base = -1;
+                if(deltas.containsKey(id)) {
+                    //A delta is only worth its chain if it is well under the size of the contents it replaces
+                    byte[] contents = blobContents(id);
+                    byte[] delta = Delta.encode(blobContents(deltas.get(id)), contents);
+                    if(delta.length < contents.length / 2) {
+                        write(out, BlobCodec.wrap(delta));
+                        base = records.get(deltas.get(id));
+                    } else if(locate(Kind.BLOB, id) == null) {
+                        write(out, BlobCodec.wrap(contents));
+                    } else {
+                        transferObject(Kind.BLOB, id, out);
+                    }
+                } else if(locate(entry.getValue(), id) == null) {
+                    write(out, BlobCodec.wrap(blobContents(id)));
+                } else {
+                    transferObject(entry.getValue(), id, out);
+                }
+                index.put(toBytes(id)).put(entry.getValue().tag).putLong(offset)
+                        .putLong(out.position() - offset).putInt(base);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Could not write pack file: %s", excp.getMessage());
+        }
+
+        //The old files may hold the only copy of objects that refs point at, so they are kept until the new pack
+        //and its index are on disk; writing the index syncs the directory, which makes both names durable
+        List<Pack> oldPacks = new ArrayList<>(getPacks());
+        closePacks();
+        packTemp.renameTo(packFile);
+        writeContentsAtomically(idxFile, (Object) index.array());
+
+        for(Pack pack : oldPacks) {
+            if(!pack.name.equals(name)) {
+                join(Repository.PACKS, pack.name + ".pack").delete();
+                join(Repository.PACKS, pack.name + ".idx").delete();
+            }
+        }
+        Repository.PENDING.delete();
+        for(File file : looseFiles) {
+            deleteLoose(file);
+        }
+    }
+
+    //Drops bases from DELTAS until no chain of deltas is longer than MAX_DEPTH and none loops back on itself.
+    //Chains are followed iteratively, as the history of a file can be far longer than the stack is deep
+    private static void limitDepth(Map<String, String> deltas) {
+        HashMap<String, Integer> depths = new HashMap<>();
+        for(String id : new ArrayList<>(deltas.keySet())) {
+            ArrayList<String> chain = new ArrayList<>();
+            HashSet<String> onChain = new HashSet<>();
+            for(String at = id; at != null && !depths.containsKey(at); at = deltas.get(at)) {
+                if(!onChain.add(at)) {
+                    deltas.remove(chain.get(chain.size() - 1));
+                    break;
+                }
+                chain.add(at);
+            }
+            for(int i = chain.size() - 1; i >= 0; i--) {
+                String base = deltas.get(chain.get(i));
+                int depth = (base == null) ? 0 : depths.get(base) + 1;
+                if(depth > MAX_DEPTH) {
+                    deltas.remove(chain.get(i));
+                    depth = 0;
+                }
+                depths.put(chain.get(i), depth);
+            }
+        }
+    }
+
+    //Returns the uncompressed contents of a blob while repacking, through the cache so the base of a delta is
+    //usually only decoded once
+    private static byte[] blobContents(String id) {
+        return deltaBases.get(id, BlobCodec::read);
+    }
+
+    private static void write(FileChannel out, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    //Appends the contents of an object to a channel, streaming them from the loose file or pack
+    private static void transferObject(Kind kind, String id, FileChannel out) throws IOException {
+        Location location = locate(kind, id);
+        if(location == null) throw error("Missing object %s.", id);
+
+        try(FileChannel in = FileChannel.open(location.file.toPath())) {
+            long done = 0;
+            while(done < location.length) {
+                long n = in.transferTo(location.position + done, location.length - done, out);
+                if(n <= 0) throw error("Truncated object %s.", id);
+                done += n;
+            }
+        }
+    }
+
+    //Returns the bytes the store takes on disk: every loose object, pack and pack index
+    static long diskUsage() {
+        long total = 0;
+        for(Kind kind : Kind.values()) {
+            for(File file : looseObjects(kind).values()) {
+                total += file.length();
+            }
+        }
+        File[] packFiles = Repository.PACKS.listFiles(File::isFile);
+        if(packFiles != null) {
+            for(File file : packFiles) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    //Synchronized because checkout reads objects from several threads at once
+    private static synchronized List<Pack> getPacks() {
+        if(packs == null) {
+            packs = new ArrayList<>();
+            List<String> files = plainFilenamesIn(Repository.PACKS);
+            if(files != null) {
+                for(String file : files) {
+                    if(file.endsWith(".idx")) {
+                        packs.add(new Pack(file.substring(0, file.length() - 4)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+    //Synchronized for the same reason as getPacks
+    private static synchronized Pending getPending() {
+        if(pending == null) pending = new Pending();
+        return pending;
+    }
+    //Closes every pack, the pending pack too, so they are scanned afresh on next access
+    private static synchronized void closePacks() {
+        if(pending != null) pending.close();
+        pending = null;
+        if(packs == null) return;
+        for(Pack pack : packs) {
+            pack.close();
+        }
+        packs = null;
+    }
+
+    static byte[] toBytes(String id) {
+        byte[] bytes = new byte[id.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /** A stream that ends after a fixed number of bytes of the stream it wraps */
+    private static class RegionInputStream extends FilterInputStream {
+        private long remaining;
+
+        RegionInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0) return -1;
+            int b = in.read();
+            if(b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if(n > 0) remaining -= n;
+            return n;
+        }
+    }
+
+    /** An object streamed into the pending pack before its id is known, such as a blob hashed while it is copied
+     *  in. Its bytes go straight to the end of the pending pack, unless it is deferred */
+    static class NewObject extends OutputStream {
+        private final Kind kind;
+        /** The contents of a deferred object, held until keep */
+        private ByteArrayOutputStream deferred;
+        /** Where the entry of this object starts in the pending pack, or -1 before its first byte is written */
+        private long start = -1;
+        private long length = 0;
+
+        private NewObject(Kind kind) {
+            this.kind = kind;
+        }
+
+        //Holds the contents in memory until keep, leaving the pending pack free for other objects in the meantime.
+        //For small objects written alongside others, such as a chunk manifest, whose chunks are stored as it grows
+        void defer() {
+            deferred = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(deferred != null) {
+                deferred.write(b, off, len);
+                return;
+            }
+            Pending target = getPending();
+            if(start < 0) start = target.claim(this);
+            target.write(ByteBuffer.wrap(b, off, len), start + PENDING_HEADER + length);
+            length += len;
+        }
+
+        //Adds the object to the store as ID, or drops it if the store already has ID
+        void keep(String id) {
+            if(exists(kind, id)) {
+                discard();
+                return;
+            }
+            Pending target = getPending();
+            try {
+                if(start < 0) start = target.claim(this);
+                if(deferred != null) {
+                    target.write(ByteBuffer.wrap(deferred.toByteArray()), start + PENDING_HEADER);
+                    length = deferred.size();
+                }
+                target.finish(this, kind, id, start, length);
+            } catch (IOException excp) {
+                throw error("Could not write object %s: %s", id, excp.getMessage());
+            }
+        }
+
+        //Drops the object, giving back the space it took in the pending pack
+        void discard() {
+            if(start >= 0) getPending().release(this);
+            start = -1;
+            length = 0;
+        }
+    }
+
+    /** The pending pack and an index of its entries built by scanning them. Only the thread holding the repository
+     *  appends to it, one object at a time, so the end of the file belongs to at most one NewObject */
+    private static class Pending {
+        /** Where an object's stored form lies in the pending pack */
+        static class Entry {
+            final Kind kind;
+            final long offset;
+            final long length;
+
+            Entry(Kind kind, long offset, long length) {
+                this.kind = kind;
+                this.offset = offset;
+                this.length = length;
+            }
+        }
+
+        private final TreeMap<String, Entry> entries = new TreeMap<>();
+        private FileChannel channel;
+        /** The end of the last whole entry; anything past it was cut short by a crash */
+        private long end = 0;
+        /** Whether the file is known to be on disk. Not on opening, as an earlier process may have appended to it
+         *  without syncing, and not once the file is created, until its directory entry is synced too */
+        private boolean synced = false;
+        private boolean created = false;
+        /** The object whose contents are being written at the end of the file, if any */
+        private NewObject open;
+
+        Pending() {
+            if(!Repository.PENDING.isFile()) return;
+            try {
+                channel = FileChannel.open(Repository.PENDING.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                scan();
+            } catch (IOException excp) {
+                throw error("Could not open pending pack: %s", excp.getMessage());
+            }
+        }
+
+        //Indexes the whole entries past END
+        private void scan() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(PENDING_HEADER);
+            long size = channel.size();
+            while(end + PENDING_HEADER <= size) {
+                header.clear();
+                while(header.hasRemaining()) {
+                    if(channel.read(header, end + header.position()) < 0) return;
+                }
+                header.flip();
+                Kind kind = Kind.find(header.get());
+                byte[] id = new byte[ID_BYTES];
+                header.get(id);
+                long length = header.getLong();
+                if(kind == null || length < 0 || length > size - end - PENDING_HEADER) return;
+                entries.put(toHex(id), new Entry(kind, end + PENDING_HEADER, length));
+                end += PENDING_HEADER + length;
+            }
+        }
+
+        Entry get(Kind kind, String id) {
+            Entry entry = entries.get(id);
+            return (entry != null && entry.kind == kind) ? entry : null;
+        }
+        //Adds the ids of the entries of a kind that start with PREFIX to IDS
+        void addIds(Kind kind, String prefix, Set<String> ids) {
+            for(Map.Entry<String, Entry> entry : entries.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+                if(entry.getValue().kind == kind) ids.add(entry.getKey());
+            }
+        }
+
+        byte[] read(Entry entry) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) entry.length);
+            try {
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                        throw error("Truncated pending pack.");
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("Could not read pending pack: %s", excp.getMessage());
+            }
+            return buffer.array();
+        }
+
+        //Gives the end of the file to OBJECT, or to an object written whole if it is null, and returns where its
+        //entry starts. Entries another process appended since the scan are indexed first, and a tail cut short by
+        //a crash is cut off
+        long claim(NewObject object) throws IOException {
+            //An object left open by a command that failed part way through is dropped
+            if(open != null) release(open);
+            if(channel == null) {
+                Repository.PACKS.mkdirs();
+                channel = FileChannel.open(Repository.PENDING.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                created = true;
+            }
+            scan();
+            if(channel.size() > end) channel.truncate(end);
+            open = object;
+            return end;
+        }
+
+        void write(ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        //Appends an object whose contents are already in memory
+        void append(Kind kind, String id, byte[] contents) throws IOException {
+            long start = claim(null);
+            ByteBuffer entry = ByteBuffer.allocate(PENDING_HEADER + contents.length);
+            entry.put(kind.tag).put(toBytes(id)).putLong(contents.length).put(contents).flip();
+            write(entry, start);
+            add(kind, id, start, contents.length);
+        }
+
+        //Writes the header of OBJECT, whose contents are written, which makes it an entry
+        void finish(NewObject object, Kind kind, String id, long start, long length) throws IOException {
+            if(open != object) throw error("Object %s was overwritten while it was written.", id);
+            ByteBuffer header = ByteBuffer.allocate(PENDING_HEADER);
+            header.put(kind.tag).put(toBytes(id)).putLong(length).flip();
+            write(header, start);
+            add(kind, id, start, length);
+        }
+
+        private void add(Kind kind, String id, long start, long length) {
+            entries.put(id, new Entry(kind, start + PENDING_HEADER, length));
+            end = start + PENDING_HEADER + length;
+            open = null;
+            synced = false;
+        }
+
+        //Cuts off the contents OBJECT wrote, if it still holds the end of the file
+        void release(NewObject object) {
+            if(open != object) return;
+            open = null;
+            try {
+                channel.truncate(end);
+            } catch (IOException excp) {
+                throw error("Could not write pending pack: %s", excp.getMessage());
+            }
+        }
+
+        //Forces the pending pack to disk, with its directory entry if the file is new
+        void sync() throws IOException {
+            if(channel == null || synced) return;
+            channel.force(true);
+            if(created) {
+                syncDirectory(Repository.PACKS);
+                syncDirectory(Repository.GITLET_DIR);
+                created = false;
+            }
+            synced = true;
+        }
+
+        void close() {
+            try {
+                if(channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** A single pack file and its memory-mapped index */
+    private static class Pack {
+        final String name;
+        private final MappedByteBuffer index;
+        private final FileChannel data;
+        private final int count;
+        private final int recordSize;
+
+        Pack(String name) {
+            this.name = name;
+            try(FileChannel idx = FileChannel.open(join(Repository.PACKS, name + ".idx").toPath())) {
+                index = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+                data = FileChannel.open(join(Repository.PACKS, name + ".pack").toPath(), StandardOpenOption.READ);
+            } catch (IOException excp) {
+                throw error("Could not open pack %s: %s", name, excp.getMessage());
+            }
+            int version = index.getInt(4);
+            if(index.getInt(0) != IDX_MAGIC || version < 1 || version > IDX_VERSION) {
+                throw error("Corrupt pack index %s.", name);
+            }
+            count = index.getInt(8);
+            recordSize = (version == 1) ? RECORD_V1 : RECORD;
+        }
+
+        int size() {
+            return count;
+        }
+
+        //Binary searches the index for an id, returning its record number or -1
+        int find(String id) {
+            byte[] key = toBytes(id);
+            int lo = 0, hi = count - 1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, key);
+                if(cmp < 0) {
+                    lo = mid + 1;
+                } else if(cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+        //Returns the first record whose id is not less than PREFIX
+        int lowerBound(String prefix) {
+            int lo = 0, hi = count;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(id(mid).compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+        private int compareId(int record, byte[] key) {
+            int base = IDX_HEADER + record * recordSize;
+            for(int i = 0; i < ID_BYTES; i++) {
+                int cmp = Integer.compare(index.get(base + i) & 0xff, key[i] & 0xff);
+                if(cmp != 0) return cmp;
+            }
+            return 0;
+        }
+
+        String id(int record) {
+            byte[] id = new byte[ID_BYTES];
+            index.get(IDX_HEADER + record * recordSize, id);
+            return toHex(id);
+        }
+        Kind kind(int record) {
+            return Kind.of(index.get(IDX_HEADER + record * recordSize + ID_BYTES));
+        }
+        long offset(int record) {
+            return index.getLong(IDX_HEADER + record * recordSize + ID_BYTES + 1);
+        }
+        long length(int record) {
+            return index.getLong(IDX_HEADER + record * recordSize + ID_BYTES + 9);
+        }
+
+        //Returns the record number of the base of a delta, or -1 if the object is stored whole
+        int base(int record) {
+            return (recordSize == RECORD_V1) ? -1 : index.getInt(IDX_HEADER + record * recordSize + ID_BYTES + 17);
+        }
+
+        byte[] read(int record) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) length(record));
+            long position = offset(record);
+            try {
+                while(buffer.hasRemaining()) {
+                    int n = data.read(buffer, position + buffer.position());
+                    if(n < 0) throw error("Truncated pack %s.", name);
+                }
+            } catch (IOException excp) {
+                throw error("Could not read pack %s: %s", name, excp.getMessage());
+            }
+            return buffer.array();
+        }
+
+        void close() {
+            try {
+                data.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
\ No newline at end of file
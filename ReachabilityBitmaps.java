@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** A Bitmap for the tip of every branch, in .gitlet/bitmaps, holding the commit graph positions of every
+ *  commit reachable from that tip. Positions never change while the graph lives, so a bitmap stays valid until
+ *  the graph is cleared, which clears the bitmaps with it. Whether one commit is an ancestor of a tip is then a
+ *  single lookup, and the common ancestors of two tips are the intersection of their bitmaps.
+ *
+ *  Bitmaps are kept for branch tips only. When a branch moves, the bitmap of its new tip is built from the
+ *  bitmaps of the commits below it, so a commit on top of a tip only adds itself to its parent's bitmap.
+ *
+ *  File layout: magic, version, count, then for each tip its 20-byte id, its position and its bitmap.
+ */
+class ReachabilityBitmaps {
+    private static final int MAGIC = 0x47424d50; // "GBMP"
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Bitmaps by the position of their tip, loaded lazily */
+    private static HashMap<Integer, Bitmap> bitmaps;
+
+    //Returns the commits reachable from the commit at POSITION, or null if it is not a branch tip
+    static Bitmap get(int position) {
+        load();
+        return bitmaps.get(position);
+    }
+
+    //Makes the stored bitmaps those of TIPS, building the ones that are missing and dropping the rest
+    static void update(Collection<String> tips) {
+        load();
+        HashMap<Integer, Bitmap> updated = new HashMap<>();
+        for(String tip : tips) {
+            int position = CommitGraph.positionOf(tip);
+            if(!updated.containsKey(position)) updated.put(position, build(position));
+        }
+        if(updated.keySet().equals(bitmaps.keySet())) return;
+        bitmaps = updated;
+        write();
+    }
+
+    //Forgets every bitmap, for when the commit graph is cleared and positions are about to change
+    static void clear() {
+        bitmaps = null;
+        Repository.BITMAPS.delete();
+    }
+
+    //Builds the bitmap of the commit at POSITION, walking down only until commits with bitmaps are reached
+    private static Bitmap build(int position) {
+        Bitmap stored = bitmaps.get(position);
+        if(stored != null) return stored;
+
+        Bitmap reached = new Bitmap();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(position);
+        while(!stack.isEmpty()) {
+            int at = stack.pop();
+            if(at < 0 || reached.contains(at)) continue;
+            Bitmap below = bitmaps.get(at);
+            if(below != null) {
+                reached.or(below);
+                continue;
+            }
+            reached.add(at);
+            stack.push(CommitGraph.parentOf(at));
+            stack.push(CommitGraph.secondParentOf(at));
+        }
+        return reached;
+    }
+
+    private static void load() {
+        if(bitmaps != null) return;
+        bitmaps = new HashMap<>();
+        if(!Repository.BITMAPS.isFile()) return;
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(Repository.BITMAPS)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                clear();
+                bitmaps = new HashMap<>();
+                return;
+            }
+            int count = in.readInt();
+            byte[] id = new byte[ID_BYTES];
+            for(int i = 0; i < count; i++) {
+                in.readFully(id);
+                int position = in.readInt();
+                Bitmap bitmap = Bitmap.read(in);
+                //A tip whose position moved means the graph was rebuilt since the bitmaps were written
+                if(CommitGraph.positionOf(ObjectStore.toHex(id)) != position) {
+                    clear();
+                    bitmaps = new HashMap<>();
+                    return;
+                }
+                bitmaps.put(position, bitmap);
+            }
+        } catch (IOException excp) {
+            //Unreadable bitmaps are only a lost speedup; they are rebuilt as branches move
+            clear();
+            bitmaps = new HashMap<>();
+        }
+    }
+
+    private static void write() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bitmaps.size());
+            for(Map.Entry<Integer, Bitmap> entry : new TreeMap<>(bitmaps).entrySet()) {
+                out.write(ObjectStore.toBytes(CommitGraph.idAt(entry.getKey())));
+                out.writeInt(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write reachability bitmaps: %s", excp.getMessage());
+        }
+        //Not synced: bitmaps lost in a crash are checked against the graph on load and rebuilt as branches move
+        replaceContents(Repository.BITMAPS, (Object) bytes.toByteArray());
+    }
+}
\ No newline at end of file
@@ -1,8 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.text.SimpleDateFormat;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -16,51 +24,85 @@ public class Repository {
     public static final File REMOVALS = join(STAGING_AREA, "remove");
     public static final File COMMITS = join(GITLET_DIR, "commits");
     public static final File BLOBS = join(GITLET_DIR, "blobs");
+    public static final File TREES = join(GITLET_DIR, "trees");
+    /** Chunks of large blobs, see ChunkStore */
+    public static final File CHUNKS = join(GITLET_DIR, "chunks");
+    /** Directory of per-blob name files kept by older versions; folded into BLOB_INDEX when found */
     public static final File BLOB_NAMES = join(GITLET_DIR, "blob-names");
+    public static final File BLOB_INDEX = join(GITLET_DIR, "blob-index");
+    public static final File BLOB_INDEX_LOG = join(GITLET_DIR, "blob-index.log");
     public static final File BRANCHES = join(GITLET_DIR, "branches");
+    public static final File PACKS = join(GITLET_DIR, "packs");
+    /** Objects written since the last seal, see ObjectStore */
+    public static final File PENDING = join(PACKS, "pending");
+    public static final File CONFIG = join(GITLET_DIR, "config");
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
+    /** Reachability bitmaps of the branch tips, see ReachabilityBitmaps */
+    public static final File BITMAPS = join(GITLET_DIR, "bitmaps");
+    /** Write-ahead journal of ref updates, see Journal */
+    public static final File JOURNAL = join(GITLET_DIR, "journal");
+    /** Messages of every commit, see MessageIndex */
+    public static final File MESSAGE_INDEX = join(GITLET_DIR, "message-index");
+    /** Stat cache of the working tree, see StatCache */
+    public static final File INDEX = join(GITLET_DIR, "index");
+    /** Refs, as paths relative to GITLET_DIR for Journal */
+    private static final String POINTER = "pointer";
+    private static final String CURRENT_BRANCH = "branch-current";
+    /** Parsed commits by id. Commits never change, so entries stay valid for as long as the process lives */
+    private static final ObjectCache<String, Commit> commits = new ObjectCache<>(16 << 20, Commit::weight);
+    /** Blob names by blob id, kept in step with BlobNameIndex by addBlobName and removeBlob */
+    private static final ObjectCache<String, String> blobNames = new ObjectCache<>(4 << 20, name -> 64 + 2L * name.length());
+    /** Where the output of commands is printed */
+    private final PrintStream out;
     /** Head pointer points to the current commit that is in the working directory */
-    private static String pointer;
+    private String pointer;
     /** Keeps track of the name of the current branch */
-    private static String currentBranch;
-    /** The format in which dates should be printed when the log() or logGlobal() commands are invoked */
-    private static final SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy");
+    private String currentBranch;
 
     //Initializes the .gitlet directory
     public void initialize() {
         if(GITLET_DIR.exists()) {
-            System.out.println("Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("Gitlet version-control system already exists in the current directory.");
         }
 
         ADDITIONS.mkdirs();
         REMOVALS.mkdir();
         COMMITS.mkdir();
         BLOBS.mkdir();
-        BLOB_NAMES.mkdir();
+        TREES.mkdir();
+        CHUNKS.mkdir();
         BRANCHES.mkdir();
 
         setCurrentBranch("master");
     }
 
     public void addFile(String file) {
+        file = WorkingTree.normalize(file);
         File path = join(CWD, file);
 
-        if(!path.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+        if(!path.isFile()) {
+            throw error("File does not exist.");
         }
 
-        String code = getSHACodeOfFile(file);
+        //A file unchanged since the last scan has its code in the stat cache, so adding it back when it is already
+        //tracked reads and copies nothing. Otherwise hash the file while copying it into the store so that it is
+        //only read once; the copy is dropped again if the file turns out to need no staging
+        ObjectStore.NewObject incoming = ObjectStore.newObject(ObjectStore.Kind.BLOB);
+        String code = WorkingTree.cachedCode(file);
+        boolean copied = code == null;
+        if(copied) code = copyAndHash(path, BlobCodec.newBlobStream(incoming, path.length()), file);
         if(join(REMOVALS, code).exists()) {
+            incoming.discard();
             join(REMOVALS, code).delete();
-            System.exit(0);
+            return;
         }
 
         List<String> additions = plainFilenamesIn(ADDITIONS);
         if(additions != null) {
             for(String stagedFile : additions) {
-                if(getBlobName(stagedFile).equals(file)) {
+                if(file.equals(getBlobName(stagedFile))) {
                     removeBlob(stagedFile);
+                    join(ADDITIONS, stagedFile).delete();
                 }
             }
         }
@@ -69,30 +111,45 @@ public class Repository {
         if(prevBlobs != null) {
             for(String blob : prevBlobs) {
                 if(blob.equals(code)) {
-                    System.exit(0);
+                    incoming.discard();
+                    return;
                 }
             }
         }
 
-        addToStagingArea(file);
+        if(!copied) code = copyAndHash(path, BlobCodec.newBlobStream(incoming, path.length()), file);
+        stageFile(incoming, code, file);
     }
     private void addToStagingArea(String file) {
-        String code = getSHACodeOfFile(file);
-        writeContents(join(ADDITIONS, code), readContents(join(CWD, file)));
+        ObjectStore.NewObject incoming = ObjectStore.newObject(ObjectStore.Kind.BLOB);
+        File path = join(CWD, file);
+        String code = copyAndHash(path, BlobCodec.newBlobStream(incoming, path.length()), file);
+        stageFile(incoming, code, file);
+    }
+    //Keeps the copy of a working file that was hashed as it was written to the store, and stages it for addition.
+    //The file in the additions area is empty: it only marks the blob, which is already in the store, as staged
+    private void stageFile(ObjectStore.NewObject copy, String code, String file) {
+        copy.keep(code);
+        writeContents(join(ADDITIONS, code));
         addBlobName(code, file);
     }
+    //Returns the copy of a staged blob that older versions kept in the additions area, or null if the blob is in
+    //the store and its file in the additions area is only a marker
+    private static File legacyStagedCopy(String code) {
+        File staged = join(ADDITIONS, code);
+        return (staged.length() > 0) ? staged : null;
+    }
 
     public void removeFile(String file) {
-        if(!join(CWD, file).exists()) {
-            HashMap<String, String> file_codes = getCurrentCommit().getHashMap();
-            String code = file_codes.get(file);
+        file = WorkingTree.normalize(file);
+        if(!join(CWD, file).isFile()) {
+            String code = getCurrentCommit().getBlob(file);
 
             if(code == null) {
-                System.out.println("No reason to remove the file.");
-                System.exit(0);
+                throw error("No reason to remove the file.");
             } else {
                 writeContents(join(REMOVALS, code));
-                System.exit(0);
+                return;
             }
         }
 
@@ -100,193 +157,441 @@ public class Repository {
         if(join(ADDITIONS, code).exists()) {
             removeBlob(code);
             join(ADDITIONS, code).delete();
-            System.exit(0);
+            return;
         }
 
         List<String> blobs = getCurrentCommit().getBlobs();
         if(blobs != null && blobs.contains(code)) {
             writeContents(join(REMOVALS, code));
-            restrictedDelete(join(CWD, file));
+            deleteWorkingFile(file);
         } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
     }
 
     //Commits the current staging area, then clears the staging area and moves master/head pointer
     private void commit(String message, String mergedBranch) {
         Commit prevCommit = getCurrentCommit();
-        ArrayList<String> blobs = new ArrayList<>(Objects.requireNonNull(plainFilenamesIn(ADDITIONS)));
-        List<String> prevBlobs = prevCommit.getBlobs();
-        List<String> fileNames = new ArrayList<>();
+        //Only the paths that were staged are applied to the previous tree, so unchanged subtrees are shared
+        HashMap<String, String> changes = new HashMap<>();
         List<String> removals = plainFilenamesIn(REMOVALS);
 
-        for(String code : blobs) {
-            fileNames.add(getBlobName(code));
-            writeContents(join(BLOBS, code), readContents(join(ADDITIONS, code)));
-        }
-        if(prevBlobs != null) {
-            for(String blob : prevBlobs) {
-                if(!fileNames.contains(getBlobName(blob)) && removals != null && !removals.contains(blob)) {
-                    blobs.add(blob);
+        if(removals != null) {
+            for(String code : removals) {
+                String name = getBlobName(code);
+                if(name == null || !code.equals(prevCommit.getBlob(name))) {
+                    name = findFileName(prevCommit, code);
                 }
+                if(name != null) changes.put(name, null);
+            }
+        }
+        List<String> additions = Objects.requireNonNull(plainFilenamesIn(ADDITIONS));
+        List<String> chunks = new ArrayList<>();
+        for(String code : additions) {
+            File legacy = legacyStagedCopy(code);
+            if(legacy != null) ObjectStore.write(ObjectStore.Kind.BLOB, code, legacy);
+            changes.put(getBlobName(code), code);
+            List<ChunkStore.Reference> manifest = ChunkStore.manifest(code);
+            if(manifest == null) continue;
+            for(ChunkStore.Reference chunk : manifest) {
+                chunks.add(chunk.id);
             }
         }
+        //Every blob and chunk the commit names must be durable before its commit point. Most are in the pending
+        //pack, which the commit syncs as a whole; any an older version left loose are synced one by one
+        ObjectStore.sync(ObjectStore.Kind.BLOB, additions);
+        ObjectStore.sync(ObjectStore.Kind.CHUNK, chunks);
 
-        Commit commit = new Commit(message, getBranchCommit(currentBranch), mergedBranch, blobs);
-        commit(commit);
+        String tree = Tree.update(prevCommit.getTree(), changes);
+        commit(new Commit(message, getBranchCommit(currentBranch), mergedBranch, tree));
     }
     public void commit(String message) {
         commit(message, null);
     }
-    //Commits a specified commit
+    //Commits a specified commit: writes it, then moves the head and the current branch to it in one journaled
+    //update. That update is the commit point, so a crash leaves either no trace of the commit or a journal from
+    //which the next command finishes it
     public void commit(Commit commit) {
-        setPointer(commit.commit());
-        editBranch(currentBranch, pointer);
+        String code = commit.commit();
+        LinkedHashMap<String, String> refs = new LinkedHashMap<>();
+        refs.put(POINTER, code);
+        refs.put(branchRef(currentBranch), code);
+        Journal.update(refs);
+        pointer = code;
+        //Indexed only after the commit point, so a crash before it leaves no trace of the commit in find or log
+        CommitGraph.add(code, commit.getParent(), commit.getSecondParent());
+        MessageIndex.add(code, commit.getMessage());
         clearStagingArea();
+        updateBitmaps();
+    }
+    //Finishes the ref updates a crash kept from reaching their files. The commits the journal moved refs to may
+    //be missing from the indexes, and the staging area may still hold the changes they took
+    private void recover() {
+        RepositoryLock lock = RepositoryLock.acquire();
+        try {
+            if(!Journal.isPending()) return;
+            Journal.Log log = Journal.replay();
+            if(log == null) return;
+            for(String value : new LinkedHashSet<>(log.values)) {
+                //The current branch is journaled by name; every other ref holds a commit id
+                Commit commit = value.matches("[0-9a-f]{" + UID_LENGTH + "}") ? Commit.read(value) : null;
+                if(commit == null) continue;
+                CommitGraph.add(value, commit.getParent(), commit.getSecondParent());
+                MessageIndex.restore(value, commit.getMessage());
+            }
+            tidyStagingArea();
+        } finally {
+            lock.close();
+        }
+    }
+    //Drops staged changes that the head commit already has: additions of a blob it holds and removals of a blob
+    //it does not, which is what a commit interrupted before it cleared the staging area leaves behind
+    private void tidyStagingArea() {
+        List<String> additions = plainFilenamesIn(ADDITIONS), removals = plainFilenamesIn(REMOVALS);
+        if((additions == null || additions.isEmpty()) && (removals == null || removals.isEmpty())) return;
+        Commit head = getCommit(getPointer());
+        HashSet<String> blobs = new HashSet<>(head.getHashMap().values());
+        for(String code : Objects.requireNonNull(additions)) {
+            if(blobs.contains(code)) join(ADDITIONS, code).delete();
+        }
+        for(String code : Objects.requireNonNull(removals)) {
+            if(!blobs.contains(code)) join(REMOVALS, code).delete();
+        }
     }
 
-    public void log() {
-        String code = pointer;
-        Commit commit;
-        while(code != null) {
-            commit = logCommit(code);
-
-            code = commit.getParent();
+    public void log(LogOptions options) {
+        //Follow first parents through the commit graph rather than through each commit object, reading only the
+        //commits that are printed
+        int position = CommitGraph.positionOf(pointer);
+        try(LogWriter out = new LogWriter(options)) {
+            while(position >= 0 && !out.isFull()) {
+                //Dates along the first-parent chain only go back, so the first older commit ends the log
+                if(!out.print(CommitGraph.idAt(position))) break;
+                position = CommitGraph.parentOf(position);
+            }
         }
     }
-    public void logGlobal() {
-        List<String> commits = plainFilenamesIn(COMMITS);
-        for(String code : commits) {
-            logCommit(code);
+    public void logGlobal(LogOptions options) {
+        Iterator<String> commits = ObjectStore.iterate(ObjectStore.Kind.COMMIT);
+        try(LogWriter out = new LogWriter(options)) {
+            while(commits.hasNext() && !out.isFull()) {
+                out.print(commits.next());
+            }
         }
     }
-    private Commit logCommit(String code) {
-        Commit commit = getCommit(code);
 
-        System.out.println("===");
-        System.out.println("commit " + code);
+    /** Prints log entries through a single buffered writer, counting them against the limit of the options */
+    private class LogWriter implements AutoCloseable {
+        private final LogOptions options;
+        private final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out), STREAM_BUFFER);
+        private final StringBuilder entry = new StringBuilder();
+        private int printed = 0;
 
-        if(commit.getSecondParent() != null) {
-            System.out.println("Merge: " + commit.getParent().substring(0, 7) + " " + commit.getSecondParent().substring(0, 7));
+        LogWriter(LogOptions options) {
+            this.options = options;
         }
 
-        System.out.println("Date: " + format.format(commit.getDate()) + " -0800");
-        System.out.println(commit.getMessage());
-        System.out.println();
+        boolean isFull() {
+            return printed >= options.limit;
+        }
 
-        return commit;
-    }
+        //Prints a commit, returning false without printing it if it is older than the options allow
+        boolean print(String code) {
+            Commit commit = getCommit(code);
+            if(commit.getDate().getTime() < options.since) return false;
+
+            entry.setLength(0);
+            options.print(code, commit, entry);
+            try {
+                writer.append(entry);
+            } catch (IOException excp) {
+                throw error("Could not write log: %s", excp.getMessage());
+            }
+            printed++;
+            return true;
+        }
 
-    public void find(String message) {
-        List<String> files = plainFilenamesIn(COMMITS);
-        boolean found = false;
-
-        if(files != null) {
-            for(String code : files) {
-                if(getCommit(code).getMessage().equals(message)) {
-                    System.out.println(code);
-                    if(!found) found = true;
-                }
+        @Override
+        public void close() {
+            try {
+                writer.flush();
+            } catch (IOException excp) {
+                throw error("Could not write log: %s", excp.getMessage());
             }
         }
+    }
 
-        if(!found) {
-            System.out.println("Found no commit with that message");
-            System.exit(0);
+    public void find(String message) {
+        printFound(MessageIndex.find(message));
+    }
+    //Finds the commits whose message contains TEXT
+    public void findContaining(String text) {
+        printFound(MessageIndex.findContaining(text));
+    }
+    //Finds the commits with a message matching a regular expression anywhere in it
+    public void findMatching(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            throw error("Invalid regular expression.");
         }
+        printFound(MessageIndex.findMatching(pattern));
+    }
+    private void printFound(List<String> codes) {
+        if(codes.isEmpty()) {
+            throw error("Found no commit with that message");
+        }
+        StringBuilder report = new StringBuilder();
+        for(String code : codes) {
+            report.append(code).append('\n');
+        }
+        out.print(report);
     }
 
     public void createBranch(String name) {
         if(branchExists(name)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         } else {
             editBranch(name, pointer);
         }
     }
     public void removeBranch(String name) {
         if(!branchExists(name)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         } else if(currentBranch.equals(name)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         } else {
             deleteBranch(name);
         }
     }
 
     public void printStatus() {
-        List<String> items = plainFilenamesIn(BRANCHES);
+        printStatus(false);
+    }
+    //Prints the status of the repository. In porcelain mode prints one "XY path" line per changed file instead, where
+    //X is the staged change and Y the unstaged one (A added, M modified, D deleted, ?? untracked)
+    public void printStatus(boolean porcelain) {
+        Map<String, String> head = getCurrentCommit().getHashMap();
+        SortedMap<String, WorkingTree.FileState> files = WorkingTree.scan();
+
+        TreeMap<String, String> staged = stagedAdditions();
+        TreeSet<String> removed = stagedRemovals();
+
+        //Compare the working files against what the next commit would contain, using the cached codes from the scan
+        TreeMap<String, String> modified = new TreeMap<>();
+        TreeSet<String> paths = new TreeSet<>(head.keySet());
+        paths.addAll(staged.keySet());
+        for(String path : paths) {
+            if(removed.contains(path)) continue;
+            String expected = staged.containsKey(path) ? staged.get(path) : head.get(path);
+            WorkingTree.FileState file = files.get(path);
+            if(file == null) {
+                modified.put(path, "deleted");
+            } else if(!file.code.equals(expected)) {
+                modified.put(path, "modified");
+            }
+        }
+        TreeSet<String> untracked = new TreeSet<>();
+        for(String path : files.keySet()) {
+            if(!staged.containsKey(path) && (!head.containsKey(path) || removed.contains(path))) untracked.add(path);
+        }
+
+        StringBuilder report = new StringBuilder();
+        if(porcelain) {
+            report.append("## ").append(currentBranch).append('\n');
+            TreeSet<String> changed = new TreeSet<>(staged.keySet());
+            changed.addAll(removed);
+            changed.addAll(modified.keySet());
+            for(String path : changed) {
+                char x = ' ', y = ' ';
+                if(removed.contains(path)) {
+                    x = 'D';
+                } else if(staged.containsKey(path)) {
+                    x = head.containsKey(path) ? 'M' : 'A';
+                }
+                if(modified.containsKey(path)) y = modified.get(path).equals("deleted") ? 'D' : 'M';
+                report.append(x).append(y).append(' ').append(path).append('\n');
+            }
+            for(String path : untracked) {
+                report.append("?? ").append(path).append('\n');
+            }
+            out.print(report);
+            return;
+        }
 
-        System.out.println("=== Branches ===");
-        for(String branch : items) {
-            if(branch.equals(currentBranch)) System.out.print("*");
-            System.out.println(branch);
+        report.append("=== Branches ===\n");
+        for(String branch : plainFilenamesIn(BRANCHES)) {
+            if(branch.equals(currentBranch)) report.append('*');
+            report.append(branch).append('\n');
+        }
+        report.append("\n=== Staged Files ===\n");
+        for(String path : staged.keySet()) {
+            report.append(path).append('\n');
         }
+        report.append("\n=== Removed Files ===\n");
+        for(String path : removed) {
+            report.append(path).append('\n');
+        }
+        report.append("\n=== Modifications Not Staged For Commit ===\n");
+        for(Map.Entry<String, String> entry : modified.entrySet()) {
+            report.append(entry.getKey()).append(" (").append(entry.getValue()).append(")\n");
+        }
+        report.append("\n=== Untracked Files ===\n");
+        for(String path : untracked) {
+            report.append(path).append('\n');
+        }
+        out.print(report);
+    }
 
-        items = plainFilenamesIn(ADDITIONS);
+    //Returns the files staged for addition, by path
+    private TreeMap<String, String> stagedAdditions() {
+        TreeMap<String, String> staged = new TreeMap<>();
+        List<String> items = plainFilenamesIn(ADDITIONS);
         if(items != null) {
-            System.out.println("\n=== Staged Files ===");
             for(String code : items) {
-                System.out.println(getBlobName(code));
+                staged.put(getBlobName(code), code);
             }
         }
-
-        items = plainFilenamesIn(REMOVALS);
+        return staged;
+    }
+    //Returns the paths of the files staged for removal
+    private TreeSet<String> stagedRemovals() {
+        TreeSet<String> removed = new TreeSet<>();
+        List<String> items = plainFilenamesIn(REMOVALS);
         if(items != null) {
-            System.out.println("\n=== Removed Files ===");
             for(String code : items) {
-                System.out.println(getBlobName(code));
+                String name = getBlobName(code);
+                removed.add((name == null) ? findFileName(getCurrentCommit(), code) : name);
             }
         }
+        return removed;
+    }
 
-        System.out.println("\n=== Modifications Not Staged For Commit ===\n\n=== Untracked Files ===");
+    //Prints the differences between two snapshots. With two commits, compares them; with one, compares it to the
+    //working files, or to the staging area if STAGED is set; with none, compares the staging area to the working
+    //files, or the current commit to the staging area if STAGED is set. Only PATHS, and files under them, are
+    //compared if any are given. Files whose blob ids match on both sides are never read
+    public void diff(List<String> commits, boolean staged, List<String> paths, boolean stat) {
+        String[] codes = new String[commits.size()];
+        for(int i = 0; i < codes.length; i++) {
+            codes[i] = getFullCommitCode(commits.get(i));
+            if(codes[i] == null) throw error("No commit with that id exists.");
+        }
+
+        TreeMap<String, String[]> changes;
+        Map<String, String> next = null;
+        SortedMap<String, WorkingTree.FileState> files = null;
+        if(codes.length == 2) {
+            changes = Tree.diff(getCommit(codes[0]).getTree(), getCommit(codes[1]).getTree());
+        } else {
+            if(codes.length == 0 || staged) {
+                //The files the next commit would contain
+                next = new HashMap<>(getCurrentCommit().getHashMap());
+                next.putAll(stagedAdditions());
+                next.keySet().removeAll(stagedRemovals());
+            }
+            Map<String, String> before = (codes.length == 1) ? getCommit(codes[0]).getHashMap()
+                    : staged ? getCurrentCommit().getHashMap() : next;
+            Map<String, String> after = next;
+            if(!staged) {
+                //Only tracked files are compared against the working directory
+                files = WorkingTree.scan();
+                after = new HashMap<>();
+                for(String path : before.keySet()) {
+                    WorkingTree.FileState file = files.get(path);
+                    if(file != null) after.put(path, file.code);
+                }
+            }
+            changes = new TreeMap<>();
+            TreeSet<String> all = new TreeSet<>(before.keySet());
+            all.addAll(after.keySet());
+            for(String path : all) {
+                String old = before.get(path), current = after.get(path);
+                if(!Objects.equals(old, current)) changes.put(path, new String[] {old, current});
+            }
+        }
+
+        boolean working = files != null;
+        int changed = 0, insertions = 0, deletions = 0;
+        StringBuilder summary = new StringBuilder();
+        try {
+            for(Map.Entry<String, String[]> change : changes.entrySet()) {
+                String path = change.getKey(), old = change.getValue()[0], current = change.getValue()[1];
+                if(!paths.isEmpty() && !underAny(path, paths)) continue;
+
+                UnifiedDiff diff = new UnifiedDiff(readVersion(path, old, false), readVersion(path, current, working));
+                changed++;
+                insertions += diff.insertions();
+                deletions += diff.deletions();
+                if(stat) {
+                    summary.append(' ').append(path).append(" | ").append(diff.isBinary() ? "Bin"
+                            : (diff.insertions() + diff.deletions()) + " " + "+".repeat(Math.min(diff.insertions(), 40))
+                            + "-".repeat(Math.min(diff.deletions(), 40))).append('\n');
+                    continue;
+                }
+                UnifiedDiff.print(out, "diff a/" + path + " b/" + path + "\n");
+                if(diff.isBinary()) {
+                    UnifiedDiff.print(out, "Binary files a/" + path + " and b/" + path + " differ\n");
+                    continue;
+                }
+                UnifiedDiff.print(out, "--- " + (old == null ? "/dev/null" : "a/" + path) + "\n+++ "
+                        + (current == null ? "/dev/null" : "b/" + path) + "\n");
+                diff.write(out);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write diff: %s", excp.getMessage());
+        }
+        if(stat && changed > 0) {
+            summary.append(' ').append(changed).append(changed == 1 ? " file" : " files").append(" changed, ")
+                    .append(insertions).append(" insertions(+), ").append(deletions).append(" deletions(-)\n");
+            out.print(summary);
+        }
+    }
+    //Returns the contents of one side of a diff: empty for a missing file, the working file for the working side,
+    //otherwise the staged copy or stored blob with that id
+    private byte[] readVersion(String path, String code, boolean working) {
+        if(code == null) return new byte[0];
+        if(working) return readContents(join(CWD, path));
+        File legacy = legacyStagedCopy(code);
+        return (legacy != null) ? BlobCodec.readFile(legacy) : readBlob(code);
+    }
+    private static boolean underAny(String path, List<String> prefixes) {
+        for(String prefix : prefixes) {
+            if(prefix.isEmpty() || path.equals(prefix) || path.startsWith(prefix + "/")) return true;
+        }
+        return false;
     }
 
     public void checkoutFile(String file) {
         checkoutFile(file, getBranchCommit(currentBranch));
     }
     public void checkoutFile(String file, String c) {
-        String codeCommit = (c.length() == UID_LENGTH) ? c : getFullCommitCode(c);
-
-        if(!commitExists(codeCommit)) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        Commit commit = getCommit(codeCommit);
+        file = WorkingTree.normalize(file);
+        String codeCommit = getFullCommitCode(c);
 
-        List<String> codes = commit.getBlobs();
-        Iterator<String> i = codes.iterator();
-        String code = "h";
-        while(i.hasNext() && !file.equals(getBlobName(code))) {
-            code = i.next();
+        if(codeCommit == null) {
+            throw error("No commit with that id exists.");
         }
-        if(!getBlobName(code).equals(file)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+        String code = getCommit(codeCommit).getBlob(file);
+        if(code == null) {
+            throw error("File does not exist in that commit.");
         }
+        //Leave a working file that already has the right contents untouched, keeping its mtime
+        File working = join(CWD, file);
+        if(working.isFile() && sha1OfFile(working, file).equals(code)) return;
 
-        checkoutCode(code);
+        checkoutCode(code, file);
     }
-    public void checkoutCode(String code) {
-        List<String> files = plainFilenamesIn(CWD);
-        String fileName = getBlobName(code);
-        if(files != null && files.contains(fileName)) {
-            restrictedDelete(join(CWD, fileName));
-        }
-
-        writeContents(join(CWD, fileName), readContents(join(BLOBS, code)));
+    public void checkoutCode(String code, String fileName) {
+        Checkout.write(fileName, code);
     }
     public void checkoutBranch(String branch) {
         if(!branchExists(branch)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
         if(branch.equals(currentBranch)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
 
         String branchCode = getBranchCommit(branch);
@@ -295,49 +600,53 @@ public class Repository {
         setCurrentBranch(branch);
     }
     private void checkoutCommit(String c) {
-        String code = (c.length() == UID_LENGTH) ? c : getFullCommitCode(c);
+        String code = getFullCommitCode(c);
 
-        if(!join(COMMITS, code).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if(code == null) {
+            throw error("No commit with that id exists.");
         }
 
-        List<String> files = plainFilenamesIn(CWD);
-        List<String> trackedFiles = getCurrentCommit().getBlobs();
-        List<String> previousFiles = getCommit(c).getBlobs();
+        Commit target = getCommit(code);
+        SortedMap<String, WorkingTree.FileState> files = WorkingTree.scan();
 
-        //If any of these lists are null, initialize them as a new list to avoid having to check for null cases
-        if(trackedFiles == null) trackedFiles = new ArrayList<>();
-        if(previousFiles == null) previousFiles = new ArrayList<>();
-        if(files == null) files = new ArrayList<>();
-
-        //Find the names of all files in the commit being checked out
-        List<String> previousNames = new ArrayList<>();
-        for(String blob : previousFiles) {
-            previousNames.add(getBlobName(blob));
-        }
-
-        if(untrackedFilesExist(c)) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+        if(untrackedFilesExist(code, files)) {
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
 
         //There are no untracked files in the way: continue with checkout
-        //Delete all files that are currently being tracked that would be overwritten by checkout
-        for(String file : files) {
-            String fileCode = getSHACodeOfFile(file);
-            if(trackedFiles.contains(fileCode)) join(CWD, file).delete();
+        //Comparing the two trees skips every subtree the commits share. Tracked files the target does not have
+        //are deleted if they are unmodified
+        List<String> deletes = new ArrayList<>();
+        for(Map.Entry<String, String[]> change : Tree.diff(getCurrentCommit().getTree(), target.getTree()).entrySet()) {
+            String[] blobs = change.getValue();
+            WorkingTree.FileState file = files.get(change.getKey());
+            if(blobs[1] == null && file != null && file.code.equals(blobs[0])) {
+                deletes.add(change.getKey());
+            }
         }
-
-        for(int i = 0; i < previousFiles.size(); i++) {
-            String fileName = previousNames.get(i);
-            writeContents(join(CWD, fileName), readContentsAsString(join(BLOBS, previousFiles.get(i))));
+        //Only files whose working copy differs from the target are written, so every other file keeps its mtime
+        Map<String, String> writes = new TreeMap<>();
+        for(Map.Entry<String, String> entry : target.getHashMap().entrySet()) {
+            WorkingTree.FileState file = files.get(entry.getKey());
+            if(file == null || !file.code.equals(entry.getValue())) {
+                writes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Checkout.apply(deletes, writes);
+        WorkingTree.recordCheckout(files, deletes, writes);
+        if(Boolean.parseBoolean(Config.get(Config.CHECKOUT_REPORT, "false"))) {
+            out.println(writes.size() + " files written, " + deletes.size() + " deleted.");
         }
 
         setPointer(code);
         clearStagingArea();
     }
-    public void reset(String code) {
+    public void reset(String c) {
+        String code = getFullCommitCode(c);
+
+        if(code == null) {
+            throw error("No commit with that id exists.");
+        }
         checkoutCommit(code);
         editBranch(currentBranch, code);
     }
@@ -346,131 +655,101 @@ public class Repository {
         boolean conflict = false;
 
         if(branch.equals(currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
         if(!join(BRANCHES, branch).exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         if(plainFilenamesIn(ADDITIONS).size() > 0 || plainFilenamesIn(REMOVALS).size() > 0) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
 
-        String mergeCommitCode = getBranchCommit(branch), splitCommitCode = findSplitPoint(mergeCommitCode);
+        String mergeCommitCode = getBranchCommit(branch);
 
-        if(untrackedFilesExist(mergeCommitCode)) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+        if(untrackedFilesExist(mergeCommitCode, WorkingTree.scan())) {
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
-        if(splitCommitCode.equals(mergeCommitCode)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
-        } else if(splitCommitCode.equals(getCurrentBranchCommit())) {
-            System.out.println("Current branch fast-forwarded.");
+        //Both branches are tips with reachability bitmaps, so each of these is a single lookup
+        if(CommitGraph.isAncestor(mergeCommitCode, getCurrentBranchCommit())) {
+            throw error("Given branch is an ancestor of the current branch.");
+        } else if(CommitGraph.isAncestor(getCurrentBranchCommit(), mergeCommitCode)) {
+            out.println("Current branch fast-forwarded.");
             checkoutBranch(branch);
-            System.exit(0);
+            return;
         }
+        String splitCommitCode = findSplitPoint(mergeCommitCode);
 
         Commit currCommit = getCurrentCommit(), mergeCommit = getCommit(mergeCommitCode), splitPoint = getCommit(splitCommitCode);
 
-        HashMap<String, String> currMap = currCommit.getHashMap(), mergeMap = mergeCommit.getHashMap(),
-                splitMap = splitPoint.getHashMap();
-
-        List<String> currNames = currCommit.getFileNames(), mergeNames = mergeCommit.getFileNames(),
-                splitNames = splitPoint.getFileNames();
-
-        //Loop through the files that were tracked by the split point
-        for(String name : splitNames) {
-            String currCode = currMap.get(name), mergeCode = mergeMap.get(name), splitCode = splitMap.get(name);
-
-            if (currCode == null) currCode = "";
-            if (mergeCode == null) mergeCode = "";
-
-            if(!mergeCode.equals(splitCode)) {
-                if(currCode.equals(splitCode)) {
-                    if(mergeCode.equals("")) {
-                        writeContents(join(REMOVALS, currCode));
-                        restrictedDelete(join(CWD, name));
-                    } else {
-                        checkoutFile(name, mergeCommitCode);
-                        addToStagingArea(name);
-                    }
-                } else if(!currCode.equals(mergeCode)) {
-                    mergeConflict(currCode, mergeCode, name);
-                    conflict = true;
+        //Only the files that changed on a branch since the split point can need merging. Diffing the trees skips
+        //every subtree that is the same on both sides
+        String splitTree = splitPoint.getTree();
+        TreeMap<String, String[]> currChanges = Tree.diff(splitTree, currCommit.getTree()),
+                mergeChanges = Tree.diff(splitTree, mergeCommit.getTree());
+
+        for(Map.Entry<String, String[]> change : mergeChanges.entrySet()) {
+            String name = change.getKey(), splitCode = change.getValue()[0], mergeCode = change.getValue()[1];
+            String currCode = currChanges.containsKey(name) ? currChanges.get(name)[1] : splitCode;
+
+            if(Objects.equals(currCode, splitCode)) {
+                if(mergeCode == null) {
+                    writeContents(join(REMOVALS, currCode));
+                    deleteWorkingFile(name);
+                } else {
+                    checkoutCode(mergeCode, name);
+                    addToStagingArea(name);
                 }
-            }
-
-            currNames.remove(name);
-            mergeNames.remove(name);
-        }
-        //Files that are present in the given branch but not at the split point
-        for(String name : mergeNames) {
-            if(currMap.get(name) == null) {
-                checkoutFile(name, mergeCommitCode);
-                addToStagingArea(name);
-            } else if(!currMap.get(name).equals(mergeMap.get(name))) {
-                mergeConflict(currMap.get(name), mergeMap.get(name), name);
-                conflict = true;
+            } else if(!Objects.equals(currCode, mergeCode)) {
+                conflict |= mergeFile(splitCode, currCode, mergeCode, name);
             }
         }
 
         commit("Merged " + branch + " into " + currentBranch + ".", mergeCommitCode);
-        if(conflict) System.out.println("Encountered a merge conflict.");
+        if(conflict) out.println("Encountered a merge conflict.");
     }
-    private void mergeConflict(String currFile, String mergeFile, String name) {
-        String output = "<<<<<<< HEAD";
-        output += (currFile.equals("")) ? "" : readContentsAsString(join(BLOBS, currFile));
-        output += "=======";
-        output += (mergeFile.equals("")) ? "" : readContentsAsString(join(BLOBS, mergeFile));
-        output += ">>>>>>>";
-
-        writeContents(join(CWD, name), output);
+    //Merges the versions of a file changed on both branches line by line into the working file and stages the
+    //result. Returns whether any lines conflicted, in which case the file holds conflict markers
+    private boolean mergeFile(String splitCode, String currCode, String mergeCode, String name) {
+        byte[] split = (splitCode == null) ? new byte[0] : readBlob(splitCode),
+                curr = (currCode == null) ? new byte[0] : readBlob(currCode),
+                merge = (mergeCode == null) ? new byte[0] : readBlob(mergeCode);
+
+        File file = join(CWD, name);
+        file.getParentFile().mkdirs();
+        boolean conflict;
+        try(OutputStream output = new BufferedOutputStream(new FileOutputStream(file), STREAM_BUFFER)) {
+            conflict = Merge3.merge(split, curr, merge, output);
+        } catch (IOException excp) {
+            throw error("Could not write %s: %s", name, excp.getMessage());
+        }
         addToStagingArea(name);
+        return conflict;
     }
+    //Finds the latest common ancestor of the current branch and another commit, following the parents of both
     public String findSplitPoint(String mergeCommitCode) {
-        Commit temp = getCommit(mergeCommitCode);
-        ArrayList<String> commits = new ArrayList<>();
-        commits.add(mergeCommitCode);
-        while(temp.getParent() != null) {
-            commits.add(temp.getParent());
-            temp = getCommit(temp.getParent());
-        }
-
-        if(commits.contains(getCurrentBranchCommit())) return getCurrentBranchCommit();
-        temp = getCommit(getCurrentBranchCommit());
-        while(true) {
-            if(commits.contains(temp.getParent())) return temp.getParent();
-            if(commits.contains(temp.getSecondParent())) return temp.getSecondParent();
-            temp = getCommit(temp.getParent());
-        }
-    }
-
-    //Returns a list containing filenames of all untracked files in the working directory.
-    //Returns an empty list if all files are being tracked.
-    private List<String> findUntrackedFiles(String commit) {
-        List<String> trackedFiles = getCurrentCommit().getBlobs(), previousFiles = getCommit(commit).getBlobs()
-                , previousNames = getCommit(commit).getFileNames();
-
-        if(trackedFiles == null) trackedFiles = new ArrayList<>();
-        if(previousFiles == null) previousFiles = new ArrayList<>();
-
-        List<String> untrackedFiles = new ArrayList<>(), files = plainFilenamesIn(CWD);
-        for (String file : files) {
-            String fileCode = getSHACodeOfFile(file);
-            if (!trackedFiles.contains(fileCode) && !previousFiles.contains(fileCode)) {
-                if (previousNames.contains(file)) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
-                }
+        return CommitGraph.mergeBase(getCurrentBranchCommit(), mergeCommitCode);
+    }
+
+    //Returns a list containing paths of the untracked working files that checking out a commit would overwrite.
+    //Returns an empty list if there are none. FILES is a scan of the working directory
+    private List<String> findUntrackedFiles(String commit, Map<String, WorkingTree.FileState> files) {
+        Commit target = getCommit(commit);
+        Set<String> trackedFiles = new HashSet<>(getCurrentCommit().getBlobs());
+        Map<String, String> previousFiles = target.getHashMap();
+        Set<String> previousCodes = new HashSet<>(previousFiles.values());
+
+        List<String> untrackedFiles = new ArrayList<>();
+        for(Map.Entry<String, WorkingTree.FileState> file : files.entrySet()) {
+            String fileCode = file.getValue().code;
+            if(!trackedFiles.contains(fileCode) && !previousCodes.contains(fileCode)
+                    && previousFiles.containsKey(file.getKey())) {
+                untrackedFiles.add(file.getKey());
             }
         }
         return untrackedFiles;
     }
-    private boolean untrackedFilesExist(String commit) {
-        return !findUntrackedFiles(commit).isEmpty();
+    private boolean untrackedFilesExist(String commit, Map<String, WorkingTree.FileState> files) {
+        return !findUntrackedFiles(commit, files).isEmpty();
     }
 
     //Reads the current tracked commit from the directory and returns it
@@ -479,43 +758,67 @@ public class Repository {
     }
     //Reads a certain commit from the directory and returns it
     private Commit getCommit(String code) {
-        File path = join(COMMITS, code);
-        if(path.exists()) {
-            return readObject(path, Commit.class);
-        } else {
-            return null;
-        }
+        return commits.get(code, key -> {
+            Commit commit = Commit.read(key);
+            if(commit != null) commit.whenFlattened(() -> commits.reweigh(key));
+            return commit;
+        });
     }
     private boolean commitExists(String code) {
-        return join(COMMITS, code).exists();
+        return code != null && ObjectStore.exists(ObjectStore.Kind.COMMIT, code);
+    }
+    private byte[] readBlob(String code) {
+        return BlobCodec.read(code);
     }
 
-    public static String getBlobName(String code) {
-        File file = join(BLOB_NAMES, code);
-        if(file.exists()) {
-            return readContentsAsString(file);
-        } else {
-            return null;
+    //Finds the name a commit tracks a blob under, or null if it does not track the blob
+    private String findFileName(Commit commit, String code) {
+        for(Map.Entry<String, String> entry : commit.getHashMap().entrySet()) {
+            if(entry.getValue().equals(code)) return entry.getKey();
         }
+        return null;
+    }
+    public static String getBlobName(String code) {
+        return blobNames.get(code, BlobNameIndex::get);
     }
     private void removeBlob(String code) {
-        join(BLOB_NAMES, code).delete();
+        blobNames.remove(code);
+        BlobNameIndex.remove(code);
     }
     private void addBlobName(String code, String name) {
-        writeContents(join(BLOB_NAMES, code), name);
+        blobNames.put(code, name);
+        BlobNameIndex.put(code, name);
+    }
+
+    //Deletes a file from the working directory, along with any of its directories that are left empty
+    private void deleteWorkingFile(String file) {
+        Checkout.delete(file);
     }
 
     private String getBranchCommit(String name) {
         return readContentsAsString(join(BRANCHES, name));
     }
+    private static String branchRef(String name) {
+        return BRANCHES.getName() + "/" + name;
+    }
     private String getCurrentBranchCommit() {
         return getBranchCommit(currentBranch);
     }
     private void editBranch(String name, String commit) {
-        writeContents(join(BRANCHES, name), commit);
+        Journal.update(Collections.singletonMap(branchRef(name), commit));
+        updateBitmaps();
     }
     private void deleteBranch(String name) {
-        join(BRANCHES, name).delete();
+        Journal.update(Collections.singletonMap(branchRef(name), null));
+        updateBitmaps();
+    }
+    //Keeps a reachability bitmap for the tip of every branch, and no other commit
+    private void updateBitmaps() {
+        List<String> tips = new ArrayList<>();
+        for(String branch : Objects.requireNonNull(plainFilenamesIn(BRANCHES))) {
+            tips.add(getBranchCommit(branch));
+        }
+        ReachabilityBitmaps.update(tips);
     }
     private boolean branchExists(String name) {
         return join(BRANCHES, name).exists();
@@ -523,46 +826,256 @@ public class Repository {
 
     private void setPointer(String commit) {
         pointer = commit;
-        writeContents(join(GITLET_DIR, "pointer"), pointer);
+        Journal.update(Collections.singletonMap(POINTER, commit));
     }
     private String getPointer() {
-        return readContentsAsString(join(GITLET_DIR, "pointer"));
+        return readContentsAsString(join(GITLET_DIR, POINTER));
     }
 
     private void setCurrentBranch(String branch) {
         currentBranch = branch;
-        writeContents(join(GITLET_DIR, "branch-current"), branch);
+        Journal.update(Collections.singletonMap(CURRENT_BRANCH, branch));
     }
     private String getCurrentBranch() {
-        return (join(GITLET_DIR, "branch-current").exists()) ? readContentsAsString(join(GITLET_DIR, "branch-current"))
+        return (join(GITLET_DIR, CURRENT_BRANCH).exists()) ? readContentsAsString(join(GITLET_DIR, CURRENT_BRANCH))
                 : null;
     }
 
-    //Finds the full commit code from a shortened version
+    //Finds the full commit code from a shortened version, or returns null if no commit has it as a prefix
     private String getFullCommitCode(String shortCode) {
-        List<String> commits = plainFilenamesIn(COMMITS);
-        int length = shortCode.length();
+        if(shortCode.length() == UID_LENGTH) return commitExists(shortCode) ? shortCode : null;
+
+        List<String> matches = ObjectStore.resolve(ObjectStore.Kind.COMMIT, shortCode, 2);
+        if(matches.size() > 1) {
+            throw error("Ambiguous commit id prefix.");
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    private String getSHACodeOfFile(String file) {
+        return sha1OfFile(join(CWD, file), file);
+    }
+
+    //Deletes the objects that no branch, the head pointer or the staging area can reach, once they are older
+    //than the gc.grace setting (two weeks by default), and the blob names left behind by blobs that were staged
+    //and never committed. Reachable commits are marked by commit graph position and everything else in an IdSet,
+    //so marking costs a few bytes per object. Packed objects are as old as their pack, which gc rewrites when it
+    //deletes anything from it. With DRYRUN set, only reports what would be deleted
+    public void gc(boolean dryRun, boolean now) {
+        long grace = 14 * 24 * 60 * 60;
+        try {
+            grace = Long.parseLong(Config.get(Config.GC_GRACE, String.valueOf(grace)));
+        } catch (NumberFormatException ignored) {
+        }
+        long cutoff = now ? Long.MAX_VALUE : System.currentTimeMillis() - grace * 1000;
+
+        //Mark: commits through the graph, then the trees, blobs and chunks under each reachable commit
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        List<String> branches = Objects.requireNonNull(plainFilenamesIn(BRANCHES));
+        for(String branch : branches) {
+            stack.push(CommitGraph.positionOf(getBranchCommit(branch)));
+        }
+        stack.push(CommitGraph.positionOf(pointer));
+        BitSet reachedCommits = new BitSet(CommitGraph.size());
+        IdSet reached = new IdSet();
+        boolean chunks = ObjectStore.iterate(ObjectStore.Kind.CHUNK).hasNext();
+        while(!stack.isEmpty()) {
+            int position = stack.pop();
+            if(position < 0 || reachedCommits.get(position)) continue;
+            reachedCommits.set(position);
+            String code = CommitGraph.idAt(position);
+            reached.add(code);
+            Tree.walk(getCommit(code).getTree(), reached::add, blob -> {
+                if(reached.add(blob) && chunks) markChunks(ChunkStore.manifest(blob), reached);
+            });
+            stack.push(CommitGraph.parentOf(position));
+            stack.push(CommitGraph.secondParentOf(position));
+        }
+        //Staged blobs are in the store, or for a staging area left by an older version, in the staging area
+        for(String code : Objects.requireNonNull(plainFilenamesIn(ADDITIONS))) {
+            File legacy = legacyStagedCopy(code);
+            if(legacy == null) reached.add(code);
+            if(chunks) markChunks((legacy == null) ? ChunkStore.manifest(code) : ChunkStore.manifest(legacy), reached);
+        }
 
-        if(commits != null) {
-            for(String commit : commits) {
-                if(commit.substring(0, length).equals(shortCode)) {
-                    return commit;
+        //Sweep
+        EnumMap<ObjectStore.Kind, List<String>> garbage = new EnumMap<>(ObjectStore.Kind.class);
+        int count = 0;
+        long bytes = 0;
+        for(ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            garbage.put(kind, new ArrayList<>());
+            for(Iterator<String> ids = ObjectStore.iterate(kind); ids.hasNext(); ) {
+                String id = ids.next();
+                if(reached.contains(id) || ObjectStore.lastModified(kind, id) >= cutoff) continue;
+                garbage.get(kind).add(id);
+                count++;
+                bytes += ObjectStore.storedLength(kind, id);
+            }
+        }
+        if(dryRun) {
+            out.println("Would remove " + count + " objects, " + bytes + " bytes.");
+            return;
+        }
+
+        ObjectStore.remove(garbage);
+        for(String code : garbage.get(ObjectStore.Kind.COMMIT)) {
+            commits.remove(code);
+        }
+        for(String code : garbage.get(ObjectStore.Kind.BLOB)) {
+            ObjectStore.deltaBases.remove(code);
+        }
+        if(!garbage.get(ObjectStore.Kind.COMMIT).isEmpty()) {
+            CommitGraph.clear();
+            MessageIndex.clear();
+            updateBitmaps();
+        }
+        BlobNameIndex.retain(code -> join(ADDITIONS, code).isFile() || ObjectStore.exists(ObjectStore.Kind.BLOB, code));
+        blobNames.clear();
+        out.println("Removed " + count + " objects, " + bytes + " bytes.");
+    }
+    private static void markChunks(List<ChunkStore.Reference> manifest, IdSet reached) {
+        if(manifest == null) return;
+        for(ChunkStore.Reference chunk : manifest) {
+            reached.add(chunk.id);
+        }
+    }
+
+    //Prints how many objects the store holds, how much space it takes, and how much chunking saves: the contents of
+    //every chunked blob against the unique chunks they are stored in. Cache counters only cover this process, so
+    //they say most when commands are served by the daemon
+    public void stats() {
+        for(ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            out.println(kind.name().toLowerCase() + " objects: " + ObjectStore.list(kind).size());
+        }
+        out.println("stored: " + ObjectStore.diskUsage() + " bytes");
+
+        int chunked = 0;
+        long referenced = 0, unique = 0;
+        HashSet<String> chunks = new HashSet<>();
+        for(String code : ObjectStore.list(ObjectStore.Kind.BLOB)) {
+            if(!BlobCodec.isChunked(code)) continue;
+            chunked++;
+            for(ChunkStore.Reference chunk : ChunkStore.manifest(code)) {
+                referenced += chunk.length;
+                if(chunks.add(chunk.id)) unique += chunk.length;
+            }
+        }
+        out.println("chunked blobs: " + chunked + ", " + referenced + " bytes");
+        out.println("unique chunks: " + chunks.size() + ", " + unique + " bytes");
+        out.println(String.format("dedup ratio: %.2f", (unique == 0) ? 1.0 : (double) referenced / unique));
+
+        out.println("commit cache: " + commits);
+        out.println("blob name cache: " + blobNames);
+        out.println("delta base cache: " + ObjectStore.deltaBases);
+    }
+
+    //Prints a config value, or sets it when a value is given
+    public void config(String key, String value) {
+        if(value == null) {
+            String current = Config.get(key, null);
+            if(current != null) out.println(current);
+            return;
+        }
+        if(key.equals(Config.BLOB_CODEC) && BlobCodec.forName(value) == null) {
+            throw error("Unknown codec.");
+        }
+        if(key.equals(Config.CHUNK_THRESHOLD) && !value.matches("[0-9]+")) {
+            throw error("Chunk threshold must be a number of bytes.");
+        }
+        if(key.equals(Config.GC_GRACE) && !value.matches("[0-9]+")) {
+            throw error("Grace period must be a number of seconds.");
+        }
+        Config.set(key, value);
+    }
+
+    //Rewrites commits stored with Java serialization in the current commit encoding. Commits get new ids, so every
+    //descendant of a rewritten commit is rewritten too, and the branches and head pointer are moved to the new ids
+    public void migrate() {
+        HashMap<String, String> renamed = new HashMap<>();
+        for(String code : ObjectStore.list(ObjectStore.Kind.COMMIT)) {
+            //Rewrite parents before children, without recursing once per generation
+            ArrayDeque<String> stack = new ArrayDeque<>();
+            stack.push(code);
+            while(!stack.isEmpty()) {
+                String top = stack.peek();
+                if(renamed.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = getCommit(top);
+                String parent = commit.getParent(), parent2 = commit.getSecondParent();
+                if(parent != null && !renamed.containsKey(parent)) {
+                    stack.push(parent);
+                } else if(parent2 != null && !renamed.containsKey(parent2)) {
+                    stack.push(parent2);
+                } else {
+                    stack.pop();
+                    Commit migrated = new Commit(commit.getMessage(), renamed.get(parent), renamed.get(parent2),
+                            commit.getTree(), commit.getDate());
+                    renamed.put(top, top.equals(sha1(migrated.encode())) ? top : migrated.commit());
                 }
             }
         }
-        return null;
+
+        List<String> obsolete = new ArrayList<>();
+        for(Map.Entry<String, String> entry : renamed.entrySet()) {
+            if(!entry.getKey().equals(entry.getValue())) obsolete.add(entry.getKey());
+        }
+        if(obsolete.isEmpty()) return;
+
+        //Every branch and the head move in one update, so a crash cannot leave some on the old commits
+        LinkedHashMap<String, String> refs = new LinkedHashMap<>();
+        for(String branch : plainFilenamesIn(BRANCHES)) {
+            refs.put(branchRef(branch), renamed.get(getBranchCommit(branch)));
+        }
+        pointer = renamed.get(pointer);
+        refs.put(POINTER, pointer);
+        Journal.update(refs);
+        ObjectStore.remove(ObjectStore.Kind.COMMIT, obsolete);
+        for(String code : obsolete) {
+            commits.remove(code);
+        }
+        CommitGraph.clear();
+        MessageIndex.clear();
+        out.println("Migrated " + obsolete.size() + " commits.");
     }
 
-    private String getSHACodeOfFile(String file) {
-        return sha1(readContents(join(CWD, file)), file);
+    //Folds every pack and loose object into a single pack file, storing each new version of a file as a delta from
+    //the version it replaced. Commits are visited parents first, in commit graph order, so every base was
+    //written before the blob built on it and no two blobs can end up as each other's base
+    public void repack() {
+        TreeMap<Integer, String> ordered = new TreeMap<>();
+        for(String code : ObjectStore.list(ObjectStore.Kind.COMMIT)) {
+            ordered.put(CommitGraph.positionOf(code), code);
+        }
+
+        HashMap<String, String> bases = new HashMap<>();
+        HashSet<String> seen = new HashSet<>();
+        for(String code : ordered.values()) {
+            Commit commit = getCommit(code);
+            String parentTree = (commit.getParent() == null) ? null : getCommit(commit.getParent()).getTree();
+            for(String[] change : Tree.diff(parentTree, commit.getTree()).values()) {
+                String before = change[0], after = change[1];
+                if(after != null && seen.add(after) && before != null) bases.put(after, before);
+            }
+        }
+        ObjectStore.repack(bases);
     }
 
     private void clearStagingArea() {
         clearDirectory(ADDITIONS);
         clearDirectory(REMOVALS);
+        //The list of new chunks older versions kept here
+        join(STAGING_AREA, "new-chunks").delete();
     }
 
     public Repository() {
+        this(System.out);
+    }
+    //Creates a repository that prints the output of its commands to OUT
+    public Repository(PrintStream out) {
+        this.out = out;
+        if(Journal.isPending()) recover();
         currentBranch = getCurrentBranch();
         if(currentBranch != null) pointer = getPointer();
     }
@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static gitlet.Utils.*;
+
+/** Serializes commands on a repository. Other processes are kept out by an exclusive lock on .gitlet/lock,
+ *  and other threads of this process, such as the daemon's workers, by a lock shared within the JVM, since
+ *  file locks are held per process rather than per thread. Commands hold the lock from before they read the
+ *  current branch until after their last write.
+ */
+class RepositoryLock implements AutoCloseable {
+    static final File LOCK = join(Repository.GITLET_DIR, "lock");
+
+    private static final ReentrantLock threads = new ReentrantLock();
+    private static FileChannel channel;
+    private static FileLock processes;
+
+    private RepositoryLock() {
+    }
+
+    //Blocks until this thread holds the repository
+    static RepositoryLock acquire() {
+        threads.lock();
+        if(threads.getHoldCount() > 1) return new RepositoryLock();
+        try {
+            channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            processes = channel.lock();
+        } catch (IOException excp) {
+            release();
+            throw error("Could not lock repository: %s", excp.getMessage());
+        }
+        return new RepositoryLock();
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private static void release() {
+        try {
+            if(threads.getHoldCount() == 1 && channel != null) {
+                //Closing the channel also releases the file lock
+                channel.close();
+            }
+        } catch (IOException ignored) {
+            //The lock is released when the process exits in any case
+        } finally {
+            if(threads.getHoldCount() == 1) {
+                channel = null;
+                processes = null;
+            }
+            threads.unlock();
+        }
+    }
+}
\ No newline at end of file
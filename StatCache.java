@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The stat cache in .gitlet/index: for every working file seen by the last scan, its size, modification
+ *  time, file key (device and inode where the platform has them) and blob code. A scan only rehashes a
+ *  file when its stat data no longer matches the cache.
+ *
+ *  Files modified within the same clock tick as the cache was written could change again without their
+ *  mtime moving, so entries whose mtime is not older than the cache file itself are never trusted.
+ */
+class StatCache {
+    private static final int MAGIC = 0x47494e58; // "GINX"
+    private static final int VERSION = 1;
+
+    //Returns the cached state of every file, or an empty map if there is no usable cache
+    static Map<String, WorkingTree.FileState> load() {
+        HashMap<String, WorkingTree.FileState> entries = new HashMap<>();
+        if(!Repository.INDEX.isFile()) return entries;
+
+        long written = Repository.INDEX.lastModified();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(Repository.INDEX)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return entries;
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong(), mtime = in.readLong();
+                String key = in.readUTF(), code = in.readUTF();
+                if(mtime < written) entries.put(path, new WorkingTree.FileState(size, mtime, key, code));
+            }
+        } catch (IOException excp) {
+            //A damaged cache only costs rehashing, so start again from an empty one
+            entries.clear();
+        }
+        return entries;
+    }
+
+    static void save(Map<String, WorkingTree.FileState> entries) {
+        File temp = join(Repository.GITLET_DIR, "index.tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Map.Entry<String, WorkingTree.FileState> entry : entries.entrySet()) {
+                WorkingTree.FileState state = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(state.size);
+                out.writeLong(state.mtime);
+                out.writeUTF(state.key);
+                out.writeUTF(state.code);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            return;
+        }
+        if(!temp.renameTo(Repository.INDEX)) temp.delete();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** A directory snapshot: maps the names in one directory to blobs and to the trees of its
+ *  subdirectories. Trees are content-addressed, so a commit that changes one file only writes new trees
+ *  along that file's path and shares every other subtree with its parent commit, and comparing two
+ *  commits can skip any subtree whose id is the same on both sides. A null tree id is the empty tree.
+ *
+ *  Stored form: one line per entry sorted by name, "b <id> <name>" for blobs, "t <id> <name>" for trees.
+ */
+class Tree {
+    /** One name in a tree: either a blob or a subtree */
+    static class Entry {
+        final boolean isTree;
+        final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+    }
+
+    private final TreeMap<String, Entry> entries;
+
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static Tree read(String id) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if(id == null) return new Tree(entries);
+
+        byte[] contents = ObjectStore.read(ObjectStore.Kind.TREE, id);
+        if(contents == null) throw error("Missing tree %s.", id);
+        for(String line : new String(contents, StandardCharsets.UTF_8).split("\n")) {
+            if(line.isEmpty()) continue;
+            entries.put(line.substring(UID_LENGTH + 3), new Entry(line.charAt(0) == 't', line.substring(2, UID_LENGTH + 2)));
+        }
+        return new Tree(entries);
+    }
+
+    //Stores this tree and returns its id, or null if it is empty
+    private String write() {
+        if(entries.isEmpty()) return null;
+
+        StringBuilder contents = new StringBuilder();
+        for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+            contents.append(entry.getValue().isTree ? "t " : "b ").append(entry.getValue().id).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+        byte[] bytes = contents.toString().getBytes(StandardCharsets.UTF_8);
+        String id = sha1(bytes);
+        if(!ObjectStore.exists(ObjectStore.Kind.TREE, id)) ObjectStore.write(ObjectStore.Kind.TREE, id, bytes);
+        return id;
+    }
+
+    //Applies CHANGES (path to new blob id, or to null for a removed path) to a tree and returns the id of the
+    //result. Only the trees along changed paths are rewritten
+    static String update(String treeId, Map<String, String> changes) {
+        if(changes.isEmpty()) return treeId;
+        Tree tree = read(treeId);
+
+        //Group the changes by the subdirectory they fall under
+        TreeMap<String, Map<String, String>> subdirectories = new TreeMap<>();
+        for(Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if(slash < 0) {
+                if(change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                subdirectories.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+
+        for(Map.Entry<String, Map<String, String>> subdirectory : subdirectories.entrySet()) {
+            Entry old = tree.entries.get(subdirectory.getKey());
+            String subtree = update((old != null && old.isTree) ? old.id : null, subdirectory.getValue());
+            if(subtree == null) {
+                tree.entries.remove(subdirectory.getKey());
+            } else {
+                tree.entries.put(subdirectory.getKey(), new Entry(true, subtree));
+            }
+        }
+        return tree.write();
+    }
+
+    //Returns the id of the blob at PATH in a tree, or null if there is none. Only the trees along the path are read
+    static String lookup(String treeId, String path) {
+        int slash;
+        while((slash = path.indexOf('/')) >= 0) {
+            Entry entry = read(treeId).entries.get(path.substring(0, slash));
+            if(entry == null || !entry.isTree) return null;
+            treeId = entry.id;
+            path = path.substring(slash + 1);
+        }
+        Entry entry = read(treeId).entries.get(path);
+        return (entry == null || entry.isTree) ? null : entry.id;
+    }
+
+    //Adds every file under a tree to OUT as a path to blob id mapping
+    static void flatten(String treeId, String prefix, Map<String, String> out) {
+        for(Map.Entry<String, Entry> entry : read(treeId).entries.entrySet()) {
+            if(entry.getValue().isTree) {
+                flatten(entry.getValue().id, prefix + entry.getKey() + "/", out);
+            } else {
+                out.put(prefix + entry.getKey(), entry.getValue().id);
+            }
+        }
+    }
+
+    //Visits every blob under a tree. Subtrees for which ENTER returns false, such as ones already visited, are
+    //skipped without being read
+    static void walk(String treeId, Predicate<String> enter, Consumer<String> blob) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        if(treeId != null && enter.test(treeId)) stack.push(treeId);
+        while(!stack.isEmpty()) {
+            for(Entry entry : read(stack.pop()).entries.values()) {
+                if(!entry.isTree) {
+                    blob.accept(entry.id);
+                } else if(enter.test(entry.id)) {
+                    stack.push(entry.id);
+                }
+            }
+        }
+    }
+
+    //Returns every path whose blob differs between two trees, mapped to {old blob, new blob}, where a missing
+    //file is null. Subtrees with the same id on both sides are skipped without being read
+    static TreeMap<String, String[]> diff(String oldTree, String newTree) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        diff(oldTree, newTree, "", changes);
+        return changes;
+    }
+    private static void diff(String oldTree, String newTree, String prefix, Map<String, String[]> out) {
+        if(Objects.equals(oldTree, newTree)) return;
+        Map<String, Entry> oldEntries = read(oldTree).entries, newEntries = read(newTree).entries;
+
+        TreeSet<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+        for(String name : names) {
+            Entry a = oldEntries.get(name), b = newEntries.get(name);
+            if(a != null && b != null && a.isTree == b.isTree && a.id.equals(b.id)) continue;
+
+            String path = prefix + name;
+            String oldSubtree = (a != null && a.isTree) ? a.id : null, newSubtree = (b != null && b.isTree) ? b.id : null;
+            if(oldSubtree != null || newSubtree != null) {
+                diff(oldSubtree, newSubtree, path + "/", out);
+            }
+
+            String oldBlob = (a != null && !a.isTree) ? a.id : null, newBlob = (b != null && !b.isTree) ? b.id : null;
+            if(!Objects.equals(oldBlob, newBlob)) {
+                out.put(path, new String[] {oldBlob, newBlob});
+            }
+        }
+    }
+}
\ No newline at end of file
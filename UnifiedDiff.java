@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Differences between two versions of a file, as an edit script of kept, deleted and inserted lines computed
+ *  by Diff. Written in unified format: hunks of changed lines with CONTEXT unchanged lines around them, hunks
+ *  closer together than that being joined into one.
+ */
+class UnifiedDiff {
+    private static final int CONTEXT = 3;
+    private static final byte KEEP = 0, DELETE = 1, INSERT = 2;
+
+    private final Lines before;
+    private final Lines after;
+    private final boolean binary;
+    /** One operation per line of the edit script */
+    private final byte[] ops;
+    /** The line of each version that operation i is at; entry ops.length is the end of both files */
+    private final int[] beforeAt;
+    private final int[] afterAt;
+    private int deletions = 0;
+    private int insertions = 0;
+
+    UnifiedDiff(byte[] beforeContents, byte[] afterContents) {
+        Lines.Interner interner = new Lines.Interner();
+        before = new Lines(beforeContents, interner);
+        after = new Lines(afterContents, interner);
+        binary = before.isBinary() || after.isBinary();
+        if(binary) {
+            ops = new byte[0];
+            beforeAt = afterAt = new int[1];
+            return;
+        }
+
+        int[] matches = Diff.match(before.ids, after.ids);
+        int n = before.size(), m = after.size();
+        byte[] script = new byte[n + m];
+        int length = 0;
+        for(int i = 0, j = 0; i < n || j < m; length++) {
+            if(i < n && matches[i] == j) {
+                script[length] = KEEP;
+                i++;
+                j++;
+            } else if(i < n && matches[i] < 0) {
+                script[length] = DELETE;
+                deletions++;
+                i++;
+            } else {
+                script[length] = INSERT;
+                insertions++;
+                j++;
+            }
+        }
+        ops = Arrays.copyOf(script, length);
+        beforeAt = new int[length + 1];
+        afterAt = new int[length + 1];
+        for(int k = 0; k < length; k++) {
+            beforeAt[k + 1] = beforeAt[k] + (ops[k] != INSERT ? 1 : 0);
+            afterAt[k + 1] = afterAt[k] + (ops[k] != DELETE ? 1 : 0);
+        }
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+    int deletions() {
+        return deletions;
+    }
+    int insertions() {
+        return insertions;
+    }
+
+    //Writes the hunks of this diff
+    void write(OutputStream out) throws IOException {
+        int k = 0;
+        while(true) {
+            while(k < ops.length && ops[k] == KEEP) {
+                k++;
+            }
+            if(k == ops.length) return;
+
+            //Extend the hunk over every change at most two contexts of unchanged lines from the last
+            int start = Math.max(0, k - CONTEXT), lastChange = k;
+            for(int i = k; i < ops.length && i - lastChange <= 2 * CONTEXT + 1; i++) {
+                if(ops[i] != KEEP) lastChange = i;
+            }
+            int end = Math.min(ops.length, lastChange + 1 + CONTEXT);
+
+            int beforeLength = beforeAt[end] - beforeAt[start], afterLength = afterAt[end] - afterAt[start];
+            print(out, "@@ -" + range(beforeAt[start], beforeLength) + " +" + range(afterAt[start], afterLength) + " @@\n");
+            for(int i = start; i < end; i++) {
+                if(ops[i] == INSERT) {
+                    writeLine(out, '+', after, afterAt[i]);
+                } else {
+                    writeLine(out, ops[i] == KEEP ? ' ' : '-', before, beforeAt[i]);
+                }
+            }
+            k = end;
+        }
+    }
+
+    //Formats the start and length of a hunk. An empty range is given as the line before it
+    private static String range(int start, int length) {
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void writeLine(OutputStream out, char prefix, Lines lines, int line) throws IOException {
+        out.write(prefix);
+        lines.write(line, line + 1, out, false);
+        if(!lines.isTerminated(line)) print(out, "\n\\ No newline at end of file\n");
+    }
+
+    static void print(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
\ No newline at end of file
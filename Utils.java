@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -8,10 +9,17 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -48,16 +56,58 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return toHexString(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Size of the buffer used when streaming file contents. */
+    static final int STREAM_BUFFER = 1 << 16;
+
+    /** Returns the SHA-1 hash of the contents of FILE followed by SUFFIX,
+     *  reading FILE in fixed-size chunks so that memory use does not depend
+     *  on its size.  Throws IllegalArgumentException in case of problems. */
+    static String sha1OfFile(File file, String suffix) {
+        return copyAndHash(file, OutputStream.nullOutputStream(), suffix);
+    }
+
+    /** Writes the contents of FILE to DEST, closing it afterwards, while
+     *  computing the SHA-1 hash of FILE's contents followed by SUFFIX, so that
+     *  FILE is read only once and in fixed-size chunks.  Returns the hash.
+     *  Throws IllegalArgumentException in case of problems. */
+    static String copyAndHash(File file, OutputStream dest, String suffix) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (DigestInputStream in = new DigestInputStream(
+                Channels.newInputStream(FileChannel.open(file.toPath())),
+                MessageDigest.getInstance("SHA-1"));
+             OutputStream out = dest) {
+            byte[] buffer = new byte[STREAM_BUFFER];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
             }
-            return result.toString();
+            MessageDigest md = in.getMessageDigest();
+            md.update(suffix.getBytes(StandardCharsets.UTF_8));
+            return toHexString(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns the lower-case hexadecimal representation of BYTES. */
+    private static String toHexString(byte[] bytes) {
+        Formatter result = new Formatter();
+        for (byte b : bytes) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -121,6 +171,101 @@ class Utils {
         }
     }
 
+    /** Replaces the contents of FILE with the concatenation of CONTENTS
+     *  without readers ever seeing a partially written file: the contents
+     *  are written to a temporary file in the same directory and synced to
+     *  disk, which is then renamed over FILE, and the directory is synced so
+     *  the rename itself survives a crash.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        replaceContents(file, true, contents);
+    }
+
+    /** Replaces the contents of FILE with the concatenation of CONTENTS
+     *  through a temporary file and a rename, like writeContentsAtomically,
+     *  but without syncing anything: readers never see a partially written
+     *  file, though after a crash FILE may still hold its old contents.  For
+     *  files whose durability comes from elsewhere, such as refs the journal
+     *  covers.  Throws IllegalArgumentException in case of problems. */
+    static void replaceContents(File file, Object... contents) {
+        replaceContents(file, false, contents);
+    }
+
+    private static void replaceContents(File file, boolean sync,
+                                        Object[] contents) {
+        Path temp = null;
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            temp = Files.createTempFile(dir.toPath(), ".", ".tmp");
+            writeContents(temp.toFile(), contents);
+            if (sync) {
+                syncFile(temp.toFile());
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            if (sync) {
+                syncDirectory(dir);
+            }
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the contents of FILE to disk.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void syncFile(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the entries of directory DIR to disk, so files created in or
+     *  renamed into it survive a crash.  Does nothing on platforms that
+     *  cannot open a directory, such as Windows. */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // Directory entries are made durable by the file system there
+        }
+    }
+
+    /** Copies LENGTH bytes of FILE starting at POSITION to DEST, creating
+     *  or overwriting it as needed.  The copy is done with
+     *  FileChannel.transferTo, so the contents never pass through the Java
+     *  heap.  Throws IllegalArgumentException in case of problems. */
+    static void copyContents(File file, long position, long length,
+                             File dest) {
+        try (FileChannel in = FileChannel.open(file.toPath());
+             FileChannel out = FileChannel.open(dest.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < length) {
+                long n = in.transferTo(position + done, length - done, out);
+                if (n <= 0) {
+                    throw new IOException("unexpected end of file");
+                }
+                done += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the entire contents of FILE to DEST.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void copyContents(File file, File dest) {
+        copyContents(file, 0, file.length(), dest);
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -137,6 +282,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                    new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
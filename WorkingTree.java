@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static gitlet.Utils.*;
+
+/** Snapshots of the working directory. A scan walks every directory under CWD except .gitlet, fanning
+ *  directories and file hashing out over a ForkJoinPool, and records the stat data and blob code of every
+ *  file by its path relative to CWD, with '/' as the separator. Files whose stat data matches the stat
+ *  cache are not reread.
+ */
+class WorkingTree {
+    /** The stat data and blob code of one working file */
+    static class FileState {
+        final long size;
+        final long mtime;
+        /** Identifies the file on disk (device and inode on Unix), so a replaced file is always rehashed */
+        final String key;
+        final String code;
+
+        FileState(long size, long mtime, String key, String code) {
+            this.size = size;
+            this.mtime = mtime;
+            this.key = key;
+            this.code = code;
+        }
+
+        boolean sameStat(BasicFileAttributes attributes, String fileKey) {
+            return size == attributes.size() && mtime == attributes.lastModifiedTime().toMillis()
+                    && key.equals(fileKey);
+        }
+    }
+
+    //Scans the whole working directory, rehashing only the files whose stat data changed since the last scan
+    static SortedMap<String, FileState> scan() {
+        Map<String, FileState> cache = StatCache.load();
+        ConcurrentSkipListMap<String, FileState> files = new ConcurrentSkipListMap<>();
+        AtomicInteger rehashed = new AtomicInteger();
+        ForkJoinPool.commonPool().invoke(new DirectoryScan(Repository.CWD, "", cache, files, rehashed));
+
+        if(rehashed.get() > 0 || !cache.keySet().equals(files.keySet())) StatCache.save(files);
+        return files;
+    }
+
+    //Returns the blob code of one working file from the stat cache, without reading the file, or null if the cache
+    //has no entry for it or its stat data changed since
+    static String cachedCode(String path) {
+        FileState cached = StatCache.load().get(path);
+        if(cached == null) return null;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(join(Repository.CWD, path).toPath(),
+                    BasicFileAttributes.class);
+            return cached.sameStat(attributes, String.valueOf(attributes.fileKey())) ? cached.code : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    //Brings the stat cache up to date after a checkout deleted and wrote files, given the scan taken before it,
+    //so the next scan does not rehash the files the checkout just wrote
+    static void recordCheckout(Map<String, FileState> files, Collection<String> deleted, Map<String, String> written) {
+        TreeMap<String, FileState> updated = new TreeMap<>(files);
+        for(String path : deleted) {
+            updated.remove(path);
+        }
+        for(Map.Entry<String, String> entry : written.entrySet()) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(join(Repository.CWD, entry.getKey()).toPath(),
+                        BasicFileAttributes.class);
+                updated.put(entry.getKey(), new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        String.valueOf(attributes.fileKey()), entry.getValue()));
+            } catch (IOException excp) {
+                updated.remove(entry.getKey());
+            }
+        }
+        StatCache.save(updated);
+    }
+
+    //Converts a path given on the command line to the form used in commits: resolved against CWD with '.', '..'
+    //and repeated separators collapsed. The repository itself comes back as the empty path, and a path that
+    //resolves outside it or into .gitlet is rejected
+    static String normalize(String path) {
+        Path root = Repository.CWD.toPath().toAbsolutePath().normalize();
+        Path resolved;
+        try {
+            resolved = root.resolve(path).normalize();
+        } catch (InvalidPathException excp) {
+            throw error("Invalid path %s.", path);
+        }
+        if(!resolved.startsWith(root)) {
+            throw error("%s is outside the repository.", path);
+        }
+        Path relative = root.relativize(resolved);
+        if(relative.startsWith(Repository.GITLET_DIR.getName())) {
+            throw error("%s is inside the .gitlet directory.", path);
+        }
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Scans one directory: forks a task for each subdirectory and hashes each file in parallel. Symbolic links
+     *  to directories are not followed, so a link back up the tree cannot make the scan recurse forever */
+    private static class DirectoryScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final String prefix;
+        private final Map<String, FileState> cache;
+        private final Map<String, FileState> out;
+        private final AtomicInteger rehashed;
+
+        DirectoryScan(File dir, String prefix, Map<String, FileState> cache, Map<String, FileState> out,
+                      AtomicInteger rehashed) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.cache = cache;
+            this.out = out;
+            this.rehashed = rehashed;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = dir.listFiles();
+            if(children == null) return;
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for(File child : children) {
+                String path = prefix + child.getName();
+                if(Files.isDirectory(child.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    if(!child.equals(Repository.GITLET_DIR)) {
+                        tasks.add(new DirectoryScan(child, path + "/", cache, out, rehashed));
+                    }
+                } else if(child.isFile()) {
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            out.put(path, stat(child, path));
+                        }
+                    });
+                }
+            }
+            invokeAll(tasks);
+        }
+
+        //Returns the state of a file, reusing the cached code when its stat data is unchanged
+        private FileState stat(File file, String path) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            String key = String.valueOf(attributes.fileKey());
+
+            FileState cached = cache.get(path);
+            if(cached != null && cached.sameStat(attributes, key)) return cached;
+
+            rehashed.incrementAndGet();
+            return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), key,
+                    sha1OfFile(file, path));
+        }
+    }
+}
\ No newline at end of file